@@ -0,0 +1,148 @@
+package uk.gov.ons.ctp.common;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe cache of parsed fixtures, keyed by the resolved fixture path. As the path
+ * generated by FixtureHelper already contains the simple name of the target type, this effectively
+ * keys entries by path plus type.
+ *
+ * <p>The cached fixtures are never handed out directly. FixtureHelper either deserializes a fresh
+ * set of objects from them or returns a copy or view of them, so tests are free to mutate whatever
+ * they are given. Once the cache is full the least recently used entry is evicted.
+ *
+ * @param <V> the parsed form of the fixtures held
+ */
+public class FixtureCache<V> {
+  public static final int DEFAULT_MAX_ENTRIES = 512;
+
+  /**
+   * Parses the fixture found at a given path
+   *
+   * @param <V> the parsed form of the fixture
+   */
+  interface Loader<V> {
+    V load(String path) throws IOException;
+  }
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private volatile int maxEntries;
+  private final Map<String, V> entries;
+
+  FixtureCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+    this.entries =
+        new LinkedHashMap<String, V>(64, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            if (size() > FixtureCache.this.maxEntries) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Return the cached fixture for a path, parsing and caching it on a miss. Parsing happens outside
+   * of the cache lock so that slow fixtures don't hold up loads of other fixtures.
+   *
+   * @param path the resolved path of the fixture
+   * @param loader used to parse the fixture if it is not already cached
+   * @return the shared, cached fixture. Callers must not modify it.
+   * @throws IOException if the fixture could not be loaded
+   */
+  V get(String path, Loader<V> loader) throws IOException {
+    synchronized (entries) {
+      V cached = entries.get(path);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return cached;
+      }
+    }
+    misses.incrementAndGet();
+    V loaded = loader.load(path);
+    synchronized (entries) {
+      V raced = entries.putIfAbsent(path, loaded);
+      return raced != null ? raced : loaded;
+    }
+  }
+
+  /**
+   * @param path the resolved path of a fixture
+   * @return true if the fixture is currently cached. This doesn't count as a hit or a miss.
+   */
+  boolean contains(String path) {
+    synchronized (entries) {
+      return entries.containsKey(path);
+    }
+  }
+
+  /** @return the number of loads satisfied from the cache */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** @return the number of loads that had to parse the fixture */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** @return the number of entries evicted to keep the cache within its bounds */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /** @return the number of fixtures currently cached */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /** @return the maximum number of fixtures held before the least recently used is evicted */
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Change the bound of the cache. Shrinking it evicts the least recently used fixtures at once, so
+   * that the cache is immediately within its new bound.
+   *
+   * @param maxEntries the maximum number of fixtures to hold, which must be at least 1
+   */
+  public void setMaxEntries(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("Fixture cache must hold at least one entry");
+    }
+    synchronized (entries) {
+      this.maxEntries = maxEntries;
+      Iterator<String> eldest = entries.keySet().iterator();
+      while (entries.size() > maxEntries) {
+        eldest.next();
+        eldest.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /** Discard all cached fixtures and reset the counters */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
+}
@@ -0,0 +1,119 @@
+package uk.gov.ons.ctp.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compiles JSON fixtures into the binary Smile format. FixtureHelper prefers a compiled fixture
+ * over its JSON source when both are on the classpath, which removes the cost of parsing JSON
+ * text for large fixtures.
+ *
+ * <p>A compiled fixture sits alongside its source, with the '.json' suffix replaced by '.smile',
+ * eg, "PackageFixture.CaseContainerDTO.smile". Compilation is intended to be run as part of a
+ * project's build against its test output directory. See the README for a Maven example.
+ */
+@Slf4j
+public class FixtureCompiler {
+  static final String JSON_SUFFIX = ".json";
+  static final String COMPILED_SUFFIX = ".smile";
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+  private final SmileFactory smileFactory = new SmileFactory();
+
+  /**
+   * Compile every JSON fixture found below the given directories.
+   *
+   * @param args the directories to compile fixtures in, eg, 'target/test-classes'
+   * @throws IOException if a fixture could not be compiled
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      throw new IllegalArgumentException("Usage: FixtureCompiler <directory>...");
+    }
+    FixtureCompiler compiler = new FixtureCompiler();
+    for (String directory : args) {
+      compiler.compileAll(Paths.get(directory));
+    }
+  }
+
+  /**
+   * Compile every JSON fixture found below a directory. Fixtures whose compiled form is already up
+   * to date are skipped.
+   *
+   * @param directory the directory to search
+   * @return the number of fixtures compiled
+   * @throws IOException if a fixture could not be compiled
+   */
+  public int compileAll(Path directory) throws IOException {
+    List<Path> sources;
+    try (Stream<Path> files = Files.walk(directory)) {
+      sources =
+          files
+              .filter(Files::isRegularFile)
+              .filter(f -> f.getFileName().toString().endsWith(JSON_SUFFIX))
+              .collect(Collectors.toList());
+    }
+
+    int compiled = 0;
+    for (Path source : sources) {
+      Path target = compiledPath(source);
+      if (isUpToDate(source, target)) {
+        continue;
+      }
+      compile(source, target);
+      compiled++;
+    }
+    log.info("Compiled {} of {} fixtures in {}", compiled, sources.size(), directory);
+    return compiled;
+  }
+
+  /**
+   * Compile a single JSON fixture. Every root level value is copied, so both JSON array and
+   * newline delimited JSON fixtures are preserved as they are.
+   *
+   * @param source the JSON fixture
+   * @param target the file to write the compiled fixture to
+   * @throws IOException if the fixture could not be compiled
+   */
+  public void compile(Path source, Path target) throws IOException {
+    try (InputStream in = Files.newInputStream(source);
+        OutputStream out = Files.newOutputStream(target);
+        JsonParser parser = jsonFactory.createParser(in);
+        JsonGenerator generator = smileFactory.createGenerator(out)) {
+      while (parser.nextToken() != null) {
+        generator.copyCurrentStructure(parser);
+      }
+    }
+  }
+
+  /**
+   * Get the path of the compiled form of a fixture.
+   *
+   * @param path the path of a JSON fixture
+   * @return the path of its compiled form
+   */
+  static String compiledPath(String path) {
+    return path.substring(0, path.length() - JSON_SUFFIX.length()) + COMPILED_SUFFIX;
+  }
+
+  private static boolean isUpToDate(Path source, Path target) throws IOException {
+    return Files.exists(target)
+        && Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(source)) >= 0;
+  }
+
+  private static Path compiledPath(Path source) {
+    return source.resolveSibling(compiledPath(source.getFileName().toString()));
+  }
+}
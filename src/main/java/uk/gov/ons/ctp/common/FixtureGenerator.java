@@ -0,0 +1,357 @@
+package uk.gov.ons.ctp.common;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import lombok.Builder;
+import lombok.NonNull;
+import uk.gov.ons.ctp.common.time.DateTimeUtil;
+
+/**
+ * Generates any number of varied instances of a fixture, for volume and soak tests that need more
+ * data than it is sensible to commit.
+ *
+ * <p>The template, typically loaded with {@link FixtureHelper#loadClassObjectNode()}, is analysed
+ * once. Each generated instance then differs from it as follows:
+ *
+ * <ul>
+ *   <li>Every UUID is replaced. A UUID that appears more than once in the template is replaced by
+ *       the same new UUID throughout an instance, so references between objects are kept.
+ *   <li>Every timestamp in {@link DateTimeUtil#DATE_FORMAT_IN_JSON} format is shifted by the same
+ *       random amount, of up to 'timestampSpread' in either direction, so their relative order is
+ *       kept.
+ *   <li>Address fields ('addressLine1', 'townName', 'postcode' and 'uprn') are given new values.
+ * </ul>
+ *
+ * <p>Generation is deterministic for a given seed, and instance N is the same regardless of how
+ * many instances are generated or in which order, so streams may safely be made parallel.
+ */
+public class FixtureGenerator {
+  private static final Duration DEFAULT_TIMESTAMP_SPREAD = Duration.ofDays(30);
+
+  private static final String[] STREETS = {
+    "High Street", "Station Road", "Main Street", "Park Road", "Church Lane", "Victoria Road",
+    "Green Lane", "Manor Road", "Church Street", "Park Avenue", "Queens Road", "New Road"
+  };
+  private static final String[] TOWNS = {
+    "Newport", "Fareham", "Exeter", "Harlow", "Bangor", "Carlisle", "Durham", "Hereford", "Ipswich",
+    "Kendal", "Lincoln", "Penrith", "Redruth", "Salford", "Truro", "Wigan"
+  };
+  private static final String LETTERS = "ABCDEFGHJKLMNPRSTUWXYZ";
+
+  private final ObjectMapper mapper;
+  private final long seed;
+  private final long timestampSpreadMillis;
+  private final DateTimeFormatter dateTimeFormatter;
+  private final Part root;
+
+  /**
+   * Create a generator.
+   *
+   * @param template the fixture to base generated instances on
+   * @param seed the seed for generation. Defaults to 0.
+   * @param timestampSpread the maximum amount timestamps are moved by. Defaults to 30 days.
+   * @param mapper the mapper used to convert generated instances. Defaults to the mapper used by
+   *     FixtureHelper.
+   */
+  @Builder
+  private FixtureGenerator(
+      @NonNull JsonNode template, Long seed, Duration timestampSpread, ObjectMapper mapper) {
+    this.mapper = mapper == null ? FixtureHelper.getObjectMapper() : mapper;
+    this.seed = seed == null ? 0L : seed;
+    this.timestampSpreadMillis =
+        (timestampSpread == null ? DEFAULT_TIMESTAMP_SPREAD : timestampSpread).toMillis();
+    this.dateTimeFormatter = DateTimeFormatter.ofPattern(DateTimeUtil.DATE_FORMAT_IN_JSON);
+    this.root = compile(null, template.deepCopy());
+  }
+
+  /**
+   * Generate a stream of instances as JSON trees.
+   *
+   * @param count the number of instances to generate
+   * @return the instances
+   */
+  public Stream<JsonNode> stream(long count) {
+    return stream(count, JsonNode.class);
+  }
+
+  /**
+   * Generate a stream of instances, deserialized straight from the generated JSON tokens without
+   * building an intermediate tree.
+   *
+   * @param <T> the type to deserialize to
+   * @param count the number of instances to generate
+   * @param clazz the type to deserialize to
+   * @return the instances
+   */
+  public <T> Stream<T> stream(long count, Class<T> clazz) {
+    return LongStream.range(0, count).mapToObj(i -> generate(i, clazz));
+  }
+
+  /**
+   * Generate a single instance.
+   *
+   * @param <T> the type to deserialize to
+   * @param index the number of the instance to generate
+   * @param clazz the type to deserialize to
+   * @return the instance
+   */
+  public <T> T generate(long index, Class<T> clazz) {
+    TokenBuffer buffer = new TokenBuffer(mapper, false);
+    try {
+      root.write(buffer, new Instance(index));
+      return mapper.readValue(buffer.asParser(), clazz);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to generate instance " + index, e);
+    }
+  }
+
+  /**
+   * Write instances to a file as newline delimited JSON.
+   *
+   * @param count the number of instances to generate
+   * @param file the file to write
+   * @throws IOException if the file could not be written
+   */
+  public void writeNdjson(long count, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      writeNdjson(count, out);
+    }
+  }
+
+  /**
+   * Write instances to a stream as newline delimited JSON. Instances are written straight to the
+   * stream without being held in memory.
+   *
+   * @param count the number of instances to generate
+   * @param out the stream to write to, which is left open
+   * @throws IOException if the stream could not be written to
+   */
+  public void writeNdjson(long count, OutputStream out) throws IOException {
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.setRootValueSeparator(new SerializedString("\n"));
+      for (long i = 0; i < count; i++) {
+        root.write(generator, new Instance(i));
+      }
+      if (count > 0) {
+        generator.writeRaw('\n');
+      }
+    }
+  }
+
+  /**
+   * Analyse a node of the template, deciding which parts of it vary.
+   *
+   * @param fieldName the name of the field holding the node, or null
+   * @param node the node
+   * @return the compiled node
+   */
+  private Part compile(String fieldName, JsonNode node) {
+    if (node.isObject()) {
+      List<String> names = new ArrayList<>();
+      List<Part> parts = new ArrayList<>();
+      Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        names.add(field.getKey());
+        parts.add(compile(field.getKey(), field.getValue()));
+      }
+      return new ObjectPart(names, parts);
+    }
+    if (node.isArray()) {
+      List<Part> parts = new ArrayList<>();
+      for (JsonNode element : node) {
+        parts.add(compile(null, element));
+      }
+      return new ArrayPart(parts);
+    }
+
+    Part addressPart = compileAddressField(fieldName, node);
+    if (addressPart != null) {
+      return addressPart;
+    }
+    if (node.isTextual()) {
+      String text = node.textValue();
+      UUID uuid = parseUuid(text);
+      if (uuid != null) {
+        return (g, i) -> g.writeString(i.replace(uuid).toString());
+      }
+      OffsetDateTime timestamp = parseTimestamp(text);
+      if (timestamp != null) {
+        return (g, i) -> {
+          OffsetDateTime shifted = timestamp.plus(i.shiftMillis, ChronoUnit.MILLIS);
+          g.writeString(dateTimeFormatter.format(shifted));
+        };
+      }
+    }
+    return (g, i) -> g.writeTree(node);
+  }
+
+  private Part compileAddressField(String fieldName, JsonNode node) {
+    if (fieldName == null || !node.isValueNode() || node.isNull()) {
+      return null;
+    }
+    switch (fieldName) {
+      case "addressLine1":
+        return (g, i) -> {
+          String street = STREETS[i.random.nextInt(STREETS.length)];
+          g.writeString((1 + i.random.nextInt(250)) + " " + street);
+        };
+      case "townName":
+        return (g, i) -> g.writeString(TOWNS[i.random.nextInt(TOWNS.length)]);
+      case "postcode":
+        return (g, i) -> g.writeString(postcode(i.random));
+      case "uprn":
+        int length = node.asText().length();
+        return (g, i) -> {
+          String uprn = digits(i.random, length);
+          if (node.isNumber()) {
+            g.writeNumber(Long.parseLong(uprn));
+          } else {
+            g.writeString(uprn);
+          }
+        };
+      default:
+        return null;
+    }
+  }
+
+  private static UUID parseUuid(String text) {
+    if (text.length() != 36 || text.charAt(8) != '-' || text.charAt(23) != '-') {
+      return null;
+    }
+    try {
+      return UUID.fromString(text);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private OffsetDateTime parseTimestamp(String text) {
+    if (text.length() < 20 || text.charAt(4) != '-' || text.charAt(10) != 'T') {
+      return null;
+    }
+    try {
+      return dateTimeFormatter.parse(text, OffsetDateTime::from);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  private static String postcode(SplittableRandom random) {
+    return new StringBuilder(8)
+        .append(LETTERS.charAt(random.nextInt(LETTERS.length())))
+        .append(LETTERS.charAt(random.nextInt(LETTERS.length())))
+        .append(1 + random.nextInt(9))
+        .append(' ')
+        .append(random.nextInt(10))
+        .append(LETTERS.charAt(random.nextInt(LETTERS.length())))
+        .append(LETTERS.charAt(random.nextInt(LETTERS.length())))
+        .toString();
+  }
+
+  private static String digits(SplittableRandom random, int length) {
+    char[] digits = new char[Math.max(length, 1)];
+    digits[0] = (char) ('1' + random.nextInt(9));
+    for (int d = 1; d < digits.length; d++) {
+      digits[d] = (char) ('0' + random.nextInt(10));
+    }
+    return new String(digits);
+  }
+
+  /** Stafford's variant 13 64-bit mixing function, as used by SplittableRandom */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /** The per instance state used whilst generating */
+  private final class Instance {
+    private final long instanceSeed;
+    private final long shiftMillis;
+    private final SplittableRandom random;
+
+    Instance(long index) {
+      this.instanceSeed = mix(seed ^ mix(index + 0x9e3779b97f4a7c15L));
+      this.random = new SplittableRandom(instanceSeed);
+      this.shiftMillis =
+          timestampSpreadMillis == 0
+              ? 0
+              : random.nextLong(-timestampSpreadMillis, timestampSpreadMillis + 1);
+    }
+
+    /** Map a template UUID to its replacement, consistently within the instance */
+    UUID replace(UUID original) {
+      long msb = mix(original.getMostSignificantBits() ^ instanceSeed);
+      long lsb = mix(original.getLeastSignificantBits() ^ instanceSeed);
+      // Mark as a version 4, IETF variant UUID
+      msb = (msb & 0xffffffffffff0fffL) | 0x0000000000004000L;
+      lsb = (lsb & 0x3fffffffffffffffL) | 0x8000000000000000L;
+      return new UUID(msb, lsb);
+    }
+  }
+
+  /** A compiled node of the template */
+  private interface Part {
+    void write(JsonGenerator generator, Instance instance) throws IOException;
+  }
+
+  private static final class ObjectPart implements Part {
+    private final String[] names;
+    private final Part[] parts;
+
+    ObjectPart(List<String> names, List<Part> parts) {
+      this.names = names.toArray(new String[0]);
+      this.parts = parts.toArray(new Part[0]);
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Instance instance) throws IOException {
+      generator.writeStartObject();
+      for (int i = 0; i < parts.length; i++) {
+        generator.writeFieldName(names[i]);
+        parts[i].write(generator, instance);
+      }
+      generator.writeEndObject();
+    }
+  }
+
+  private static final class ArrayPart implements Part {
+    private final Part[] parts;
+
+    ArrayPart(List<Part> parts) {
+      this.parts = parts.toArray(new Part[0]);
+    }
+
+    @Override
+    public void write(JsonGenerator generator, Instance instance) throws IOException {
+      generator.writeStartArray();
+      for (Part part : parts) {
+        part.write(generator, instance);
+      }
+      generator.writeEndArray();
+    }
+  }
+}
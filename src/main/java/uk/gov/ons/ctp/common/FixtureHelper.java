@@ -1,17 +1,165 @@
 package uk.gov.ons.ctp.common;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import java.io.File;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.extern.slf4j.Slf4j;
 
-/** Loads JSON representation of test DTOS for unit tests */
+/**
+ * Loads JSON representation of test DTOS for unit tests.
+ *
+ * <p>Parsed fixtures are held in a process wide {@link FixtureCache}, so each file is only read
+ * and parsed once per run. Every caller still gets its own freshly deserialized objects.
+ *
+ * <p>Fixtures are found through the thread context classloader, so they may live in exploded test
+ * resource directories or be packaged inside a test-jar. Where a fixture has been compiled to the
+ * binary Smile format by {@link FixtureCompiler} the compiled form is read in preference to the
+ * JSON.
+ */
 @Slf4j
 public class FixtureHelper {
 
+  private static final FixtureCache<JsonNode> fixtureCache =
+      new FixtureCache<>(FixtureCache.DEFAULT_MAX_ENTRIES);
+
+  private static final FixtureCache<LazyJsonObject.Index> lazyObjectCache =
+      new FixtureCache<>(FixtureCache.DEFAULT_MAX_ENTRIES);
+
+  private static final StackWalker stackWalker =
+      StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+  private static final ConcurrentMap<PathKey, String> pathCache = new ConcurrentHashMap<>();
+
+  private static volatile Jackson jackson = new Jackson(new ObjectMapper());
+
+  /**
+   * Holds the mapper used for all fixture loading along with the readers derived from it. Readers
+   * are immutable and thread safe, and keep hold of the deserializers Jackson has already built,
+   * so each type only pays the cost of introspection once. The mapper and its readers are swapped
+   * as a pair so that a reader can never outlive a replaced mapper.
+   *
+   * <p>Compiled fixtures are read through a Smile factory owned by a mapper of its own. Deriving a
+   * reader with a factory that has no codec makes the reader the factory's codec, so a factory
+   * without one must never be shared between readers.
+   */
+  private static final class Jackson {
+    private final ObjectMapper mapper;
+    private final JsonFactory smileFactory = new ObjectMapper(new SmileFactory()).getFactory();
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    Jackson(ObjectMapper mapper) {
+      this.mapper = mapper;
+    }
+
+    ObjectReader readerFor(Class<?> clazz) {
+      return readers.computeIfAbsent(
+          clazz,
+          c -> mapper.readerFor(c).with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY));
+    }
+  }
+
+  /**
+   * Supply the mapper to be used for loading fixtures, eg, one with the modules and date formats
+   * configured by the project under test. The mapper itself is not modified; single values are
+   * still accepted as arrays when loading lists. Replacing the mapper also empties the fixture
+   * cache, as cached trees may depend upon the way the previous mapper parsed them.
+   *
+   * @param mapper the mapper to use from now on
+   */
+  public static void setObjectMapper(final ObjectMapper mapper) {
+    if (mapper == null) {
+      throw new IllegalArgumentException("ObjectMapper must not be null");
+    }
+    jackson = new Jackson(mapper);
+    fixtureCache.clear();
+  }
+
+  /**
+   * Get hold of the mapper used for loading fixtures.
+   *
+   * @return the mapper
+   */
+  public static ObjectMapper getObjectMapper() {
+    return jackson.mapper;
+  }
+
+  /**
+   * Get hold of the cache of parsed fixtures, eg, to inspect its hit/miss/eviction counters or to
+   * change its size.
+   *
+   * @return the process wide fixture cache
+   */
+  public static FixtureCache<JsonNode> getFixtureCache() {
+    return fixtureCache;
+  }
+
+  /**
+   * Parse, in parallel, all fixtures belonging to the given test packages or classes into the
+   * fixture cache, so that the first real load of each is a cache hit. For a package this is every
+   * fixture in or below it, and for a class it is the fixtures named after the class plus the
+   * PackageFixture files alongside it.
+   *
+   * @param packagesOrClasses fully qualified names of test packages or classes
+   * @return the time taken to parse each fixture that was not already cached, keyed by path,
+   *     slowest first
+   */
+  public static Map<String, Duration> preload(final String... packagesOrClasses) {
+    return preload(ForkJoinPool.commonPool(), packagesOrClasses);
+  }
+
+  /**
+   * Parse, in parallel, all fixtures belonging to the given test classes and their packages into
+   * the fixture cache. See {@link #preload(String...)}.
+   *
+   * @param testClasses the test classes whose fixtures are to be loaded
+   * @return the time taken to parse each fixture that was not already cached, keyed by path,
+   *     slowest first
+   */
+  public static Map<String, Duration> preload(final Class<?>... testClasses) {
+    String[] names = new String[testClasses.length];
+    for (int i = 0; i < testClasses.length; i++) {
+      names[i] = testClasses[i].getName();
+    }
+    return preload(ForkJoinPool.commonPool(), names);
+  }
+
+  /**
+   * Parse all fixtures belonging to the given test packages or classes into the fixture cache,
+   * using the supplied pool. See {@link #preload(String...)}.
+   *
+   * @param pool the pool to parse the fixtures on
+   * @param packagesOrClasses fully qualified names of test packages or classes
+   * @return the time taken to parse each fixture that was not already cached, keyed by path,
+   *     slowest first
+   */
+  public static Map<String, Duration> preload(
+      final ForkJoinPool pool, final String... packagesOrClasses) {
+    Jackson current = jackson;
+    return new FixturePreloader(pool, fixtureCache, path -> readTrees(current, path))
+        .preload(packagesOrClasses);
+  }
+
   /**
    * Find, deserialize and return List of dummy test objects from a json file. This method derives
    * the path and file name of the json file by looking at the class and only uses the package name
@@ -23,7 +171,7 @@ public class FixtureHelper {
    * @return the list
    */
   public static <T> List<T> loadPackageFixtures(final Class<T[]> clazz) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadFixtures(clazz, callerClassName, null, null, true);
   }
 
@@ -39,7 +187,7 @@ public class FixtureHelper {
    * @return the list
    */
   public static <T> List<T> loadPackageFixtures(final Class<T[]> clazz, final String qualifier) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadFixtures(clazz, callerClassName, null, null, true);
   }
 
@@ -51,7 +199,7 @@ public class FixtureHelper {
    * @return the list
    */
   public static <T> List<T> loadMethodFixtures(final Class<T[]> clazz) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadFixtures(clazz, callerClassName, null, null, false);
   }
 
@@ -66,8 +214,9 @@ public class FixtureHelper {
    * @return the list
    */
   public static <T> List<T> loadMethodFixtures(final Class<T[]> clazz, final String qualifier) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
-    String callerMethodName = new Exception().getStackTrace()[1].getMethodName();
+    StackWalker.StackFrame caller = findCaller();
+    String callerClassName = caller.getClassName();
+    String callerMethodName = caller.getMethodName();
     return actuallyLoadFixtures(clazz, callerClassName, callerMethodName, qualifier, false);
   }
 
@@ -79,7 +228,7 @@ public class FixtureHelper {
    * @return the list
    */
   public static <T> List<T> loadClassFixtures(final Class<T[]> clazz) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadFixtures(clazz, callerClassName, null, null, false);
   }
 
@@ -94,30 +243,138 @@ public class FixtureHelper {
    * @return the list
    */
   public static <T> List<T> loadClassFixtures(final Class<T[]> clazz, final String qualifier) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadFixtures(clazz, callerClassName, null, qualifier, false);
   }
 
   public static ObjectNode loadClassObjectNode() {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadObjectNode(callerClassName, null, null, false);
   }
 
   public static ObjectNode loadClassObjectNode(final String qualifier) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadObjectNode(callerClassName, null, qualifier, false);
   }
 
   public static ObjectNode loadPackageObjectNode() {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadObjectNode(callerClassName, null, null, true);
   }
 
   public static ObjectNode loadPackageObjectNode(final String qualifier) {
-    String callerClassName = new Exception().getStackTrace()[1].getClassName();
+    String callerClassName = findCaller().getClassName();
     return actuallyLoadObjectNode(callerClassName, null, qualifier, true);
   }
 
+  /**
+   * Load a lazily parsed view of a JSON object from a json file, for tests that only read or tweak
+   * a few of its fields. The path is derived in the same way as for {@link #loadClassObjectNode()}.
+   * The compiled form of a fixture is not used, as the view copies untouched fields verbatim from
+   * the JSON.
+   *
+   * @return the view of the fixture
+   */
+  public static LazyJsonObject loadClassLazyJsonObject() {
+    String callerClassName = findCaller().getClassName();
+    return actuallyLoadLazyJsonObject(callerClassName, null, false);
+  }
+
+  /**
+   * Load a lazily parsed view of a JSON object from a qualified class fixture file. See {@link
+   * #loadClassLazyJsonObject()}.
+   *
+   * @param qualifier added to file name to allow a class to have multiple forms of same type
+   * @return the view of the fixture
+   */
+  public static LazyJsonObject loadClassLazyJsonObject(final String qualifier) {
+    String callerClassName = findCaller().getClassName();
+    return actuallyLoadLazyJsonObject(callerClassName, qualifier, false);
+  }
+
+  /**
+   * Load a lazily parsed view of a JSON object from a package fixture file. See {@link
+   * #loadClassLazyJsonObject()}.
+   *
+   * @return the view of the fixture
+   */
+  public static LazyJsonObject loadPackageLazyJsonObject() {
+    String callerClassName = findCaller().getClassName();
+    return actuallyLoadLazyJsonObject(callerClassName, null, true);
+  }
+
+  /**
+   * Load a lazily parsed view of a JSON object from a qualified package fixture file. See {@link
+   * #loadClassLazyJsonObject()}.
+   *
+   * @param qualifier added to file name to allow for multiple PackageFixture files
+   * @return the view of the fixture
+   */
+  public static LazyJsonObject loadPackageLazyJsonObject(final String qualifier) {
+    String callerClassName = findCaller().getClassName();
+    return actuallyLoadLazyJsonObject(callerClassName, qualifier, true);
+  }
+
+  /**
+   * Lazily deserialize dummy test objects from a json file, one at a time, so that memory use stays
+   * flat however large the file is. The path is derived in the same way as for {@link
+   * #loadPackageFixtures(Class)}, using the name of the element type, eg,
+   * "PackageFixture.Foo.json".
+   *
+   * <p>The file may hold either a JSON array or a sequence of newline delimited JSON objects.
+   * Streamed fixtures are read directly from the file and are never cached. The returned stream
+   * holds the file open until it is fully consumed or closed, so use it in a try-with-resources.
+   *
+   * @param <T> the type of object held in the file
+   * @param clazz the element type
+   * @return the stream of objects
+   */
+  public static <T> Stream<T> streamPackageFixtures(final Class<T> clazz) {
+    String callerClassName = findCaller().getClassName();
+    return actuallyStreamFixtures(clazz, callerClassName, null, true);
+  }
+
+  /**
+   * Lazily deserialize dummy test objects from a qualified package fixture file. See {@link
+   * #streamPackageFixtures(Class)}.
+   *
+   * @param <T> the type of object held in the file
+   * @param clazz the element type
+   * @param qualifier added to file name to allow for multiple PackageFixture files
+   * @return the stream of objects
+   */
+  public static <T> Stream<T> streamPackageFixtures(final Class<T> clazz, final String qualifier) {
+    String callerClassName = findCaller().getClassName();
+    return actuallyStreamFixtures(clazz, callerClassName, qualifier, true);
+  }
+
+  /**
+   * Lazily deserialize dummy test objects from a class fixture file, eg, "FooTest.Foo.json". See
+   * {@link #streamPackageFixtures(Class)}.
+   *
+   * @param <T> the type of object held in the file
+   * @param clazz the element type
+   * @return the stream of objects
+   */
+  public static <T> Stream<T> streamClassFixtures(final Class<T> clazz) {
+    String callerClassName = findCaller().getClassName();
+    return actuallyStreamFixtures(clazz, callerClassName, null, false);
+  }
+
+  /**
+   * Lazily deserialize dummy test objects from a qualified class fixture file. See {@link
+   * #streamPackageFixtures(Class)}.
+   *
+   * @param <T> the type of object held in the file
+   * @param clazz the element type
+   * @param qualifier added to file name to allow a class to have multiple forms of same type
+   * @return the stream of objects
+   */
+  public static <T> Stream<T> streamClassFixtures(final Class<T> clazz, final String qualifier) {
+    String callerClassName = findCaller().getClassName();
+    return actuallyStreamFixtures(clazz, callerClassName, qualifier, false);
+  }
+
   /**
    * Actually does the dummy loading!
    *
@@ -137,14 +394,12 @@ public class FixtureHelper {
       final String qualifier,
       final boolean packageOnly) {
     List<T> dummies = null;
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-    String clazzName = clazz.getSimpleName().replaceAll("[\\[\\]]", "");
-    String path =
-        generatePath(callerClassName, clazzName, callerMethodName, qualifier, packageOnly);
+    Jackson current = jackson;
+    String path = resolvePath(callerClassName, clazz, callerMethodName, qualifier, packageOnly);
     try {
-      File file = new File(ClassLoader.getSystemResource(path).getFile());
-      dummies = Arrays.asList(mapper.readValue(file, clazz));
+      JsonNode tree = cachedTree(current, path);
+      T[] values = current.readerFor(clazz).readValue(tree);
+      dummies = Arrays.asList(values);
     } catch (Throwable t) {
       log.debug("Problem loading fixture {} reason {}", path, t.getMessage());
       throw new RuntimeException("Failed to load fixture: " + path);
@@ -167,13 +422,11 @@ public class FixtureHelper {
       final String callerMethodName,
       final String qualifier,
       final boolean packageOnly) {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
     ObjectNode jsonNode = null;
-    String path = generatePath(callerClassName, null, callerMethodName, qualifier, packageOnly);
+    String path = resolvePath(callerClassName, null, callerMethodName, qualifier, packageOnly);
     try {
-      File file = new File(ClassLoader.getSystemResource(path).getFile());
-      jsonNode = (ObjectNode) mapper.readTree(file);
+      JsonNode tree = cachedTree(jackson, path);
+      jsonNode = (ObjectNode) tree.deepCopy();
     } catch (Throwable t) {
       log.debug("Problem loading fixture {} reason {}", path, t.getMessage());
       throw new RuntimeException("Failed to load fixture: " + path);
@@ -181,6 +434,222 @@ public class FixtureHelper {
     return jsonNode;
   }
 
+  /**
+   * Create a lazy view of a fixture. The raw JSON and the index of its fields are cached and shared
+   * by all views of the fixture.
+   *
+   * @param callerClassName name of the class that made the initial call
+   * @param qualifier added to file name to allow a class to have multiple forms of same type
+   * @param packageOnly true if the class name is not be used but instead the test class package
+   *     name only
+   * @return the view
+   */
+  private static LazyJsonObject actuallyLoadLazyJsonObject(
+      final String callerClassName, final String qualifier, final boolean packageOnly) {
+    String path = resolvePath(callerClassName, null, null, qualifier, packageOnly);
+    try {
+      LazyJsonObject.Index index =
+          lazyObjectCache.get(path, p -> LazyJsonObject.Index.of(FixtureResource.readAllBytes(p)));
+      return new LazyJsonObject(jackson.mapper, index);
+    } catch (Throwable t) {
+      log.debug("Problem loading fixture {} reason {}", path, t.getMessage());
+      throw new RuntimeException("Failed to load fixture: " + path);
+    }
+  }
+
+  /**
+   * Open a fixture and wrap it in a lazily parsed stream.
+   *
+   * @param <T> the type of object held in the file
+   * @param clazz the element type
+   * @param callerClassName name of the class that made the initial call
+   * @param qualifier added to file name to allow a class to have multiple forms of same type
+   * @param packageOnly true if the class name is not be used but instead the test class package
+   *     name only
+   * @return the stream, which closes the fixture file when it is closed
+   */
+  private static <T> Stream<T> actuallyStreamFixtures(
+      final Class<T> clazz,
+      final String callerClassName,
+      final String qualifier,
+      final boolean packageOnly) {
+    String path = resolvePath(callerClassName, clazz, null, qualifier, packageOnly);
+    MappingIterator<T> iterator;
+    try {
+      Jackson current = jackson;
+      ObjectReader reader = current.readerFor(clazz);
+      String compiledPath = FixtureCompiler.compiledPath(path);
+      InputStream in;
+      if (FixtureResource.exists(compiledPath)) {
+        in = FixtureResource.open(compiledPath);
+        reader = reader.with(current.smileFactory);
+      } else {
+        in = FixtureResource.open(path);
+      }
+      iterator = reader.readValues(in);
+    } catch (Throwable t) {
+      log.debug("Problem loading fixture {} reason {}", path, t.getMessage());
+      throw new RuntimeException("Failed to load fixture: " + path);
+    }
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(
+                iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+            false)
+        .onClose(
+            () -> {
+              try {
+                iterator.close();
+              } catch (IOException e) {
+                log.debug("Problem closing fixture {} reason {}", path, e.getMessage());
+              }
+            });
+  }
+
+  /**
+   * Get the parsed tree for a fixture, reading it into the fixture cache if it's not already there.
+   * The returned tree is shared, so must not be modified or handed out to callers.
+   *
+   * @param current the mapper and Smile factory to parse with
+   * @param path the path to the fixture
+   * @return the cached tree
+   * @throws IOException if the fixture could not be read
+   */
+  private static JsonNode cachedTree(final Jackson current, final String path)
+      throws IOException {
+    return fixtureCache.get(path, p -> readTree(current, p));
+  }
+
+  /**
+   * Read and parse a fixture file. The resulting tree is cached, so it is only ever read by
+   * FixtureHelper itself.
+   *
+   * @param current the mapper and Smile factory to parse with
+   * @param path the path to the fixture
+   * @return the parsed fixture
+   * @throws IOException if the fixture could not be read
+   */
+  private static JsonNode readTree(final Jackson current, final String path) throws IOException {
+    String compiledPath = FixtureCompiler.compiledPath(path);
+    if (FixtureResource.exists(compiledPath)) {
+      try (InputStream in = FixtureResource.open(compiledPath)) {
+        return current.mapper.reader().with(current.smileFactory).readTree(in);
+      }
+    }
+    try (InputStream in = FixtureResource.open(path)) {
+      return current.mapper.readTree(in);
+    }
+  }
+
+  /**
+   * Read and parse every JSON value held in a fixture file. A plain fixture holds a single value,
+   * whereas a newline delimited fixture holds one value per record.
+   *
+   * @param current the mapper and Smile factory to parse with
+   * @param path the path to the fixture
+   * @return the parsed values, in file order
+   * @throws IOException if the fixture could not be read
+   */
+  private static List<JsonNode> readTrees(final Jackson current, final String path)
+      throws IOException {
+    String compiledPath = FixtureCompiler.compiledPath(path);
+    boolean compiled = FixtureResource.exists(compiledPath);
+    JsonFactory factory = compiled ? current.smileFactory : current.mapper.getFactory();
+    List<JsonNode> values = new ArrayList<>();
+    try (InputStream in = FixtureResource.open(compiled ? compiledPath : path);
+        JsonParser parser = factory.createParser(in)) {
+      while (parser.nextToken() != null) {
+        values.add(current.mapper.readTree(parser));
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Find the frame of the code that called into FixtureHelper. Frames are walked lazily, so only
+   * the top few frames are ever materialised no matter how deep the test framework stack is.
+   *
+   * @return the first stack frame outside of FixtureHelper
+   */
+  private static StackWalker.StackFrame findCaller() {
+    return stackWalker.walk(
+        frames ->
+            frames
+                .filter(f -> f.getDeclaringClass() != FixtureHelper.class)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unable to find caller")));
+  }
+
+  /**
+   * Get the path to a fixture, generating it on the first request from a call site and then
+   * serving it from a cache, so repeated loads do no string or regex work.
+   *
+   * @param callerClassName the name of the class that made the initial call
+   * @param clazz the array type being loaded, or null if loading an ObjectNode
+   * @param methodName the name of the method in the callerClass that made the initial call
+   * @param qualifier optional further qualification of the fixture name
+   * @param packageOnly true if the class and method name are not be used but instead the test class
+   *     package name only
+   * @return the path to the fixture
+   */
+  private static String resolvePath(
+      final String callerClassName,
+      final Class<?> clazz,
+      final String methodName,
+      final String qualifier,
+      final boolean packageOnly) {
+    PathKey key = new PathKey(callerClassName, clazz, methodName, qualifier, packageOnly);
+    return pathCache.computeIfAbsent(
+        key,
+        k -> {
+          String clazzName =
+              clazz == null ? null : clazz.getSimpleName().replaceAll("[\\[\\]]", "");
+          return generatePath(callerClassName, clazzName, methodName, qualifier, packageOnly);
+        });
+  }
+
+  /** Identifies a call site for the purposes of caching the path it resolves to */
+  private static final class PathKey {
+    private final String callerClassName;
+    private final Class<?> clazz;
+    private final String methodName;
+    private final String qualifier;
+    private final boolean packageOnly;
+
+    PathKey(
+        String callerClassName,
+        Class<?> clazz,
+        String methodName,
+        String qualifier,
+        boolean packageOnly) {
+      this.callerClassName = callerClassName;
+      this.clazz = clazz;
+      this.methodName = methodName;
+      this.qualifier = qualifier;
+      this.packageOnly = packageOnly;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof PathKey)) {
+        return false;
+      }
+      PathKey other = (PathKey) o;
+      return packageOnly == other.packageOnly
+          && clazz == other.clazz
+          && callerClassName.equals(other.callerClassName)
+          && Objects.equals(methodName, other.methodName)
+          && Objects.equals(qualifier, other.qualifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(callerClassName, clazz, methodName, qualifier, packageOnly);
+    }
+  }
+
   /**
    * Format the path name to the json file, using optional params ie
    * "uk/gov/ons/ctp/response/action/thing/ThingTest.testThingOK.blueThings.json"
@@ -0,0 +1,211 @@
+package uk.gov.ons.ctp.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+/**
+ * Scans the classpath for fixtures that follow FixtureHelper's naming scheme and parses them in
+ * parallel into the fixture cache.
+ *
+ * <p>Fixtures already in the cache are not parsed again, and are reported separately from those
+ * that were. Files holding a sequence of newline delimited JSON values are parsed in full, so that
+ * every record is checked, but are not cached as they are only ever streamed.
+ */
+@Slf4j
+class FixturePreloader {
+  // Matches "PackageFixture.Type.json", "FooTest.method.Type.qualifier.json" and the like
+  private static final Pattern FIXTURE_NAME = Pattern.compile("[A-Z]\\w*(\\.\\w+)*\\.json");
+
+  private final ForkJoinPool pool;
+  private final FixtureCache<JsonNode> cache;
+  private final FixtureCache.Loader<List<JsonNode>> parser;
+  private final ClassLoader classLoader;
+  private final ResourcePatternResolver resolver;
+
+  /**
+   * @param pool the pool to parse fixtures on
+   * @param cache the cache to load the fixtures into
+   * @param parser parses every JSON value held in a fixture file
+   */
+  FixturePreloader(
+      ForkJoinPool pool, FixtureCache<JsonNode> cache, FixtureCache.Loader<List<JsonNode>> parser) {
+    this.pool = pool;
+    this.cache = cache;
+    this.parser = parser;
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    this.classLoader =
+        contextClassLoader != null ? contextClassLoader : FixturePreloader.class.getClassLoader();
+    this.resolver = new PathMatchingResourcePatternResolver(classLoader);
+  }
+
+  /**
+   * Load all fixtures for the given test packages or classes.
+   *
+   * @param packagesOrClasses fully qualified names of test packages or classes
+   * @return the time taken to parse each fixture that was not already cached, keyed by path,
+   *     slowest first
+   */
+  Map<String, Duration> preload(String... packagesOrClasses) {
+    long startTime = System.nanoTime();
+
+    Set<String> paths = new TreeSet<>();
+    for (String name : packagesOrClasses) {
+      paths.addAll(findFixtures(name));
+    }
+
+    Set<String> alreadyCached = ConcurrentHashMap.newKeySet();
+    Set<String> streamed = ConcurrentHashMap.newKeySet();
+    List<Callable<Duration>> tasks = new ArrayList<>();
+    for (String path : paths) {
+      tasks.add(() -> load(path, alreadyCached, streamed));
+    }
+
+    List<String> orderedPaths = new ArrayList<>(paths);
+    List<Map.Entry<String, Duration>> timings = new ArrayList<>();
+    try {
+      List<Future<Duration>> results = pool.invokeAll(tasks);
+      for (int i = 0; i < results.size(); i++) {
+        Duration duration = results.get(i).get();
+        if (duration != null) {
+          timings.add(new SimpleImmutableEntry<>(orderedPaths.get(i), duration));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted whilst preloading fixtures", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to preload fixtures", e.getCause());
+    }
+
+    timings.sort(Map.Entry.<String, Duration>comparingByValue(Comparator.reverseOrder()));
+    Map<String, Duration> report = new LinkedHashMap<>();
+    for (Map.Entry<String, Duration> timing : timings) {
+      log.debug("Preloaded fixture {} in {} ms", timing.getKey(), timing.getValue().toMillis());
+      report.put(timing.getKey(), timing.getValue());
+    }
+    for (String path : alreadyCached) {
+      log.debug("Fixture {} was already cached", path);
+    }
+
+    log.info(
+        "Preloaded {} fixtures in {} ms. {} were already cached and {} streamed fixtures were"
+            + " checked but not cached",
+        report.size() - streamed.size(),
+        Duration.ofNanos(System.nanoTime() - startTime).toMillis(),
+        alreadyCached.size(),
+        streamed.size());
+    int cachedCount = report.size() - streamed.size() + alreadyCached.size();
+    if (cachedCount > cache.getMaxEntries()) {
+      log.warn(
+          "Preloaded {} fixtures but the fixture cache only holds {}",
+          cachedCount,
+          cache.getMaxEntries());
+    }
+    return report;
+  }
+
+  /**
+   * Parse a single fixture into the cache.
+   *
+   * @param path the path of the fixture
+   * @param alreadyCached collects the paths of fixtures that were already cached
+   * @param streamed collects the paths of newline delimited fixtures, which are not cached
+   * @return the time taken to parse the fixture, or null if it was already cached or could not be
+   *     parsed
+   */
+  private Duration load(String path, Set<String> alreadyCached, Set<String> streamed) {
+    if (cache.contains(path)) {
+      alreadyCached.add(path);
+      return null;
+    }
+    long startTime = System.nanoTime();
+    try {
+      List<JsonNode> values = parser.load(path);
+      if (values.isEmpty()) {
+        log.warn("Problem preloading fixture {} reason it is empty", path);
+        return null;
+      }
+      if (values.size() == 1) {
+        cache.get(path, p -> values.get(0));
+      } else {
+        streamed.add(path);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Problem preloading fixture {} reason {}", path, e.getMessage());
+      return null;
+    }
+    return Duration.ofNanos(System.nanoTime() - startTime);
+  }
+
+  /**
+   * Find the paths of all fixtures belonging to a test package or class.
+   *
+   * @param name the fully qualified name of a test package or class
+   * @return the classpath relative fixture paths
+   */
+  private Set<String> findFixtures(String name) {
+    String directory;
+    String pattern;
+    Predicate<String> accept;
+    if (isClass(name)) {
+      int lastDot = name.lastIndexOf('.');
+      String simpleName = name.substring(lastDot + 1);
+      directory = lastDot < 0 ? "" : name.substring(0, lastDot).replace('.', '/') + "/";
+      pattern = "classpath*:" + directory + "*.json";
+      accept =
+          fileName ->
+              FIXTURE_NAME.matcher(fileName).matches()
+                  && (fileName.startsWith(simpleName + ".")
+                      || fileName.startsWith("PackageFixture."));
+    } else {
+      directory = name.isEmpty() ? "" : name.replace('.', '/') + "/";
+      pattern = "classpath*:" + directory + "**/*.json";
+      accept = fileName -> FIXTURE_NAME.matcher(fileName).matches();
+    }
+
+    Set<String> paths = new TreeSet<>();
+    try {
+      for (Resource resource : resolver.getResources(pattern)) {
+        String fileName = resource.getFilename();
+        if (fileName == null || !accept.test(fileName)) {
+          continue;
+        }
+        String url = resource.getURL().toString();
+        int start = directory.isEmpty() ? url.lastIndexOf('/') : url.lastIndexOf("/" + directory);
+        paths.add(url.substring(start + 1));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to scan for fixtures: " + name, e);
+    }
+    return paths;
+  }
+
+  private boolean isClass(String name) {
+    try {
+      Class.forName(name, false, classLoader);
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
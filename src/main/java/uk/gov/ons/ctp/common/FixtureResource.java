@@ -0,0 +1,113 @@
+package uk.gov.ons.ctp.common;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Locates and opens fixture files on the classpath.
+ *
+ * <p>Fixtures are looked up through the thread context classloader, falling back to the
+ * classloader that loaded the test framework, so fixtures packaged in a test-jar are found without
+ * the jar having to be unpacked. Fixtures in exploded directories are read through NIO channels,
+ * with files up to {@link #MAPPED_THRESHOLD} bytes being memory mapped in a single operation.
+ */
+final class FixtureResource {
+  /** Files no bigger than this are memory mapped rather than streamed through a channel */
+  static final long MAPPED_THRESHOLD = 4 * 1024 * 1024;
+
+  private FixtureResource() {}
+
+  /**
+   * Find a fixture on the classpath.
+   *
+   * @param path the classpath relative path of the fixture
+   * @return the URL of the fixture
+   * @throws FileNotFoundException if there is no such fixture
+   */
+  static URL find(final String path) throws FileNotFoundException {
+    URL url = null;
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    if (contextClassLoader != null) {
+      url = contextClassLoader.getResource(path);
+    }
+    if (url == null) {
+      url = FixtureResource.class.getClassLoader().getResource(path);
+    }
+    if (url == null) {
+      throw new FileNotFoundException("No fixture found on classpath: " + path);
+    }
+    return url;
+  }
+
+  /**
+   * Test for the presence of a fixture on the classpath.
+   *
+   * @param path the classpath relative path of the fixture
+   * @return true if the fixture exists
+   */
+  static boolean exists(final String path) {
+    try {
+      find(path);
+      return true;
+    } catch (FileNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Read the whole of a fixture.
+   *
+   * @param path the classpath relative path of the fixture
+   * @return the content of the fixture
+   * @throws IOException if the fixture does not exist or can't be read
+   */
+  static byte[] readAllBytes(final String path) throws IOException {
+    try (InputStream in = open(path)) {
+      return in.readAllBytes();
+    }
+  }
+
+  /**
+   * Open a fixture for reading. The caller is responsible for closing the returned stream.
+   *
+   * @param path the classpath relative path of the fixture
+   * @return a stream of the fixture content
+   * @throws IOException if the fixture does not exist or can't be read
+   */
+  static InputStream open(final String path) throws IOException {
+    URL url = find(path);
+    if (!"file".equals(url.getProtocol())) {
+      return url.openStream();
+    }
+
+    Path file;
+    try {
+      file = Paths.get(url.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid fixture location: " + url, e);
+    }
+
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    long size = channel.size();
+    if (size > MAPPED_THRESHOLD) {
+      return Channels.newInputStream(channel);
+    }
+    try {
+      // The mapping remains valid once the channel has been closed
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return new ByteBufferBackedInputStream(buffer);
+    } finally {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,435 @@
+package uk.gov.ons.ctp.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A lazily parsed view of a JSON object, for tests that read or tweak a few fields of a large
+ * request body fixture before sending it on.
+ *
+ * <p>Loading only records where each field of the object lies within the raw JSON. A field's value
+ * is not parsed until it is asked for, and nested objects can be navigated with {@link
+ * #getObject(String)} without parsing anything but the path to the field of interest. When the
+ * view is written out any fields that have not been touched are copied byte for byte from the
+ * original JSON.
+ *
+ * <p>Values returned by {@link #get(String)} belong to the view, so changes made to them are
+ * written out. Getting a field that was navigated into with {@link #getObject(String)} turns the
+ * nested view into a fully parsed ObjectNode which the view then delegates to, so changes made
+ * through either the node or the view are kept. Like ObjectNode, a view is not thread safe.
+ */
+public class LazyJsonObject {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final ObjectMapper mapper;
+  private final Index index;
+
+  // Fields that have been parsed or replaced, holding either a JsonNode or a nested LazyJsonObject
+  private final Map<String, Object> touched = new LinkedHashMap<>();
+  private final Set<String> removed = new HashSet<>();
+
+  // Once the view has been handed out as an ObjectNode, this holds it and the view delegates to it
+  private ObjectNode materialised;
+
+  LazyJsonObject(ObjectMapper mapper, Index index) {
+    this.mapper = mapper;
+    this.index = index;
+  }
+
+  /**
+   * Test for the presence of a field.
+   *
+   * @param fieldName the name of the field
+   * @return true if the object has the field
+   */
+  public boolean has(String fieldName) {
+    if (materialised != null) {
+      return materialised.has(fieldName);
+    }
+    return touched.containsKey(fieldName)
+        || (index.spans.containsKey(fieldName) && !removed.contains(fieldName));
+  }
+
+  /**
+   * Get the names of the fields of the object, in the order they will be written.
+   *
+   * @return the field names
+   */
+  public List<String> fieldNames() {
+    List<String> names = new ArrayList<>();
+    if (materialised != null) {
+      materialised.fieldNames().forEachRemaining(names::add);
+      return names;
+    }
+    for (String fieldName : index.spans.keySet()) {
+      if (!removed.contains(fieldName)) {
+        names.add(fieldName);
+      }
+    }
+    for (String fieldName : touched.keySet()) {
+      if (!index.spans.containsKey(fieldName)) {
+        names.add(fieldName);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Get the value of a field, parsing it if this is the first time it has been asked for. Any
+   * changes made to the returned node are reflected when the view is written out. If the field
+   * has been navigated into with {@link #getObject(String)} then the nested view is fully parsed,
+   * and the node returned is the one that view delegates to from then on.
+   *
+   * @param fieldName the name of the field
+   * @return the value of the field, or null if there is no such field
+   */
+  public JsonNode get(String fieldName) {
+    if (materialised != null) {
+      return materialised.get(fieldName);
+    }
+    Object value = touched.get(fieldName);
+    if (value instanceof LazyJsonObject) {
+      return ((LazyJsonObject) value).materialise();
+    }
+    if (value != null) {
+      return (JsonNode) value;
+    }
+    if (!has(fieldName)) {
+      return null;
+    }
+    Span span = index.spans.get(fieldName);
+    try {
+      JsonNode node =
+          mapper.readValue(
+              index.raw, span.valueStart, span.valueEnd - span.valueStart, JsonNode.class);
+      touched.put(fieldName, node);
+      return node;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to parse field: " + fieldName, e);
+    }
+  }
+
+  /**
+   * Get a lazy view of a field holding a nested object. Only the parts of the nested object that
+   * are touched through the returned view are parsed, and changes made through it are reflected
+   * when this view is written out. Asking for the same field again returns the same view.
+   *
+   * @param fieldName the name of the field
+   * @return a view of the nested object, or null if there is no such field
+   * @throws IllegalStateException if the field has already been parsed or replaced, other than
+   *     through a view returned by this method, or does not hold an object
+   */
+  public LazyJsonObject getObject(String fieldName) {
+    Object value = touched.get(fieldName);
+    if (value instanceof LazyJsonObject) {
+      LazyJsonObject child = (LazyJsonObject) value;
+      // A materialised view only still owns the child if the child's node hasn't been replaced
+      if (materialised == null || materialised.get(fieldName) == child.materialised) {
+        return child;
+      }
+    }
+    if (materialised != null) {
+      if (!materialised.has(fieldName)) {
+        return null;
+      }
+      throw new IllegalStateException("Field has already been materialised: " + fieldName);
+    }
+    if (value != null) {
+      throw new IllegalStateException("Field has already been materialised: " + fieldName);
+    }
+    if (!has(fieldName)) {
+      return null;
+    }
+    LazyJsonObject child = new LazyJsonObject(mapper, index.child(fieldName));
+    touched.put(fieldName, child);
+    return child;
+  }
+
+  /**
+   * Set the value of a field, adding the field if it does not already exist.
+   *
+   * @param fieldName the name of the field
+   * @param value the new value
+   * @return this view
+   */
+  public LazyJsonObject set(String fieldName, JsonNode value) {
+    JsonNode node = value == null ? mapper.getNodeFactory().nullNode() : value;
+    if (materialised != null) {
+      materialised.set(fieldName, node);
+      touched.remove(fieldName);
+      return this;
+    }
+    removed.remove(fieldName);
+    touched.put(fieldName, node);
+    return this;
+  }
+
+  /**
+   * Set the value of a field to a String, adding the field if it does not already exist.
+   *
+   * @param fieldName the name of the field
+   * @param value the new value
+   * @return this view
+   */
+  public LazyJsonObject put(String fieldName, String value) {
+    return set(fieldName, mapper.getNodeFactory().textNode(value));
+  }
+
+  /**
+   * Remove a field.
+   *
+   * @param fieldName the name of the field
+   * @return this view
+   */
+  public LazyJsonObject remove(String fieldName) {
+    touched.remove(fieldName);
+    if (materialised != null) {
+      materialised.remove(fieldName);
+      return this;
+    }
+    if (index.spans.containsKey(fieldName)) {
+      removed.add(fieldName);
+    }
+    return this;
+  }
+
+  /**
+   * Write the object as JSON. Untouched fields are copied verbatim from the original JSON.
+   *
+   * @param out the stream to write to
+   * @throws IOException if the stream could not be written to
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    if (materialised != null) {
+      out.write(mapper.writeValueAsBytes(materialised));
+      return;
+    }
+    if (touched.isEmpty() && removed.isEmpty()) {
+      out.write(index.raw, index.start, index.end - index.start);
+      return;
+    }
+
+    boolean first = true;
+    out.write('{');
+    for (Map.Entry<String, Span> entry : index.spans.entrySet()) {
+      String fieldName = entry.getKey();
+      if (removed.contains(fieldName)) {
+        continue;
+      }
+      first = writeSeparator(out, first);
+      Object value = touched.get(fieldName);
+      if (value == null) {
+        Span span = entry.getValue();
+        out.write(index.raw, span.memberStart, span.valueEnd - span.memberStart);
+      } else {
+        writeMember(out, fieldName, value);
+      }
+    }
+    for (Map.Entry<String, Object> entry : touched.entrySet()) {
+      if (!index.spans.containsKey(entry.getKey())) {
+        first = writeSeparator(out, first);
+        writeMember(out, entry.getKey(), entry.getValue());
+      }
+    }
+    out.write('}');
+  }
+
+  /**
+   * Write the object as JSON.
+   *
+   * @return the UTF-8 encoded JSON
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(index.end - index.start);
+    try {
+      writeTo(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Fully parse the object, including any changes made through the view.
+   *
+   * @return the object as an ObjectNode
+   */
+  public ObjectNode toObjectNode() {
+    if (materialised != null) {
+      return materialised.deepCopy();
+    }
+    try {
+      return (ObjectNode) mapper.readTree(toBytes());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return new String(toBytes(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Switch the view over to a fully parsed ObjectNode, which the view delegates to from then on.
+   * The node is built from the values and nested views already handed out, so they stay attached.
+   *
+   * @return the node
+   */
+  private ObjectNode materialise() {
+    if (materialised == null) {
+      ObjectNode node = mapper.getNodeFactory().objectNode();
+      for (String fieldName : fieldNames()) {
+        Object value = touched.get(fieldName);
+        if (value instanceof LazyJsonObject) {
+          node.set(fieldName, ((LazyJsonObject) value).materialise());
+        } else {
+          node.set(fieldName, get(fieldName));
+        }
+      }
+      materialised = node;
+    }
+    return materialised;
+  }
+
+  private boolean writeSeparator(OutputStream out, boolean first) throws IOException {
+    if (!first) {
+      out.write(',');
+    }
+    return false;
+  }
+
+  private void writeMember(OutputStream out, String fieldName, Object value) throws IOException {
+    out.write(mapper.writeValueAsBytes(fieldName));
+    out.write(':');
+    if (value instanceof LazyJsonObject) {
+      ((LazyJsonObject) value).writeTo(out);
+    } else {
+      out.write(mapper.writeValueAsBytes(value));
+    }
+  }
+
+  /** Where a field, and its value, lie within the raw JSON */
+  private static final class Span {
+    private final int memberStart;
+    private final int valueStart;
+    private final int valueEnd;
+
+    Span(int memberStart, int valueStart, int valueEnd) {
+      this.memberStart = memberStart;
+      this.valueStart = valueStart;
+      this.valueEnd = valueEnd;
+    }
+  }
+
+  /**
+   * The immutable index of the fields of a JSON object. Indexes are shared between all views of
+   * the same fixture, with those of nested objects being built the first time they are navigated
+   * to.
+   */
+  static final class Index {
+    private final byte[] raw;
+    private final int start;
+    private final int end;
+    private final Map<String, Span> spans;
+    private final ConcurrentMap<String, Index> children = new ConcurrentHashMap<>();
+
+    private Index(byte[] raw, int start, int end, Map<String, Span> spans) {
+      this.raw = raw;
+      this.start = start;
+      this.end = end;
+      this.spans = spans;
+    }
+
+    /**
+     * Index the top level fields of a JSON object.
+     *
+     * @param raw the UTF-8 encoded JSON
+     * @return the index
+     * @throws IOException if the JSON is not a valid object
+     */
+    static Index of(byte[] raw) throws IOException {
+      return of(raw, 0, raw.length);
+    }
+
+    private static Index of(byte[] raw, int start, int end) throws IOException {
+      Map<String, Span> spans = new LinkedHashMap<>();
+      try (JsonParser parser = jsonFactory.createParser(raw, start, end - start)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IOException("JSON is not an object");
+        }
+        // Parsers may report offsets relative to the array or to the start position, so calibrate
+        // against the opening brace
+        int objectStart = skipWhitespace(raw, start);
+        long base = objectStart - parser.getTokenLocation().getByteOffset();
+
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.FIELD_NAME) {
+          String fieldName = parser.getCurrentName();
+          int memberStart = (int) (base + parser.getTokenLocation().getByteOffset());
+          parser.nextToken();
+          int valueStart = (int) (base + parser.getTokenLocation().getByteOffset());
+          parser.skipChildren();
+          token = parser.nextToken();
+          int next = (int) (base + parser.getTokenLocation().getByteOffset());
+          spans.put(fieldName, new Span(memberStart, valueStart, trimBack(raw, valueStart, next)));
+        }
+        if (token != JsonToken.END_OBJECT) {
+          throw new IOException("Malformed JSON object");
+        }
+        int objectEnd = (int) (base + parser.getTokenLocation().getByteOffset()) + 1;
+        return new Index(raw, objectStart, objectEnd, Collections.unmodifiableMap(spans));
+      }
+    }
+
+    private Index child(String fieldName) {
+      return children.computeIfAbsent(
+          fieldName,
+          f -> {
+            Span span = spans.get(f);
+            try {
+              return of(raw, span.valueStart, span.valueEnd);
+            } catch (IOException e) {
+              throw new IllegalStateException("Field does not hold an object: " + f, e);
+            }
+          });
+    }
+
+    private static int skipWhitespace(byte[] raw, int pos) {
+      while (Character.isWhitespace(raw[pos])) {
+        pos++;
+      }
+      return pos;
+    }
+
+    /**
+     * Find the end of a value, given the start of the token following it, by stepping back over
+     * whitespace and any separating comma.
+     */
+    private static int trimBack(byte[] raw, int valueStart, int next) {
+      int pos = next;
+      while (pos > valueStart && (Character.isWhitespace(raw[pos - 1]) || raw[pos - 1] == ',')) {
+        pos--;
+      }
+      return pos;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Calculates the delays between successive polls of Firestore for a single wait */
+class Backoff {
+  static final long DEFAULT_INITIAL_DELAY = 10;
+  static final long DEFAULT_MAX_DELAY = 1000;
+
+  private final BackoffStrategy strategy;
+  private final long initialDelay;
+  private final long maxDelay;
+  private long previousDelay;
+
+  /**
+   * Constructor for a Backoff. Any null argument takes its default value.
+   *
+   * @param strategy the strategy to use, defaulting to FIXED
+   * @param initialDelay the first delay in milliseconds, defaulting to 10
+   * @param maxDelay the longest delay in milliseconds, defaulting to 1000
+   */
+  Backoff(BackoffStrategy strategy, Long initialDelay, Long maxDelay) {
+    this.strategy = strategy == null ? BackoffStrategy.FIXED : strategy;
+    this.initialDelay = Math.max(initialDelay == null ? DEFAULT_INITIAL_DELAY : initialDelay, 1);
+    this.maxDelay = Math.max(maxDelay == null ? DEFAULT_MAX_DELAY : maxDelay, this.initialDelay);
+  }
+
+  /** @return the number of milliseconds to wait before the next poll */
+  long nextDelay() {
+    long delay;
+    if (previousDelay == 0) {
+      delay = initialDelay;
+    } else {
+      switch (strategy) {
+        case EXPONENTIAL:
+          delay = Math.min(maxDelay, previousDelay * 2);
+          break;
+        case DECORRELATED_JITTER:
+          long upper = Math.min(maxDelay, previousDelay * 3);
+          delay = ThreadLocalRandom.current().nextLong(initialDelay, upper + 1);
+          break;
+        case FIXED:
+        default:
+          delay = initialDelay;
+          break;
+      }
+    }
+    previousDelay = delay;
+    return delay;
+  }
+
+  /**
+   * Calculate the delay after Firestore has told us that we are exceeding our quota. Whatever the
+   * strategy, the delay is at least double the previous one, so that pressure on the project is
+   * relieved quickly.
+   *
+   * @return the number of milliseconds to wait before the next poll
+   */
+  long throttledDelay() {
+    long delay = Math.min(maxDelay, Math.max(previousDelay, initialDelay) * 2);
+    previousDelay = delay;
+    return delay;
+  }
+}
@@ -0,0 +1,12 @@
+package uk.gov.ons.ctp.common.firestore;
+
+/** The strategies available for spacing out successive polls of Firestore */
+public enum BackoffStrategy {
+  // Always wait for the initial delay
+  FIXED,
+  // Double the delay after each poll, up to the maximum delay
+  EXPONENTIAL,
+  // Pick a random delay of between the initial delay and three times the previous delay, up to the
+  // maximum delay. This stops many parallel waits from polling in lock step.
+  DECORRELATED_JITTER
+}
@@ -0,0 +1,256 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A test of the content of a Firestore object, used to decide if a wait has seen the object it is
+ * waiting for. Matchers are built once, with their paths compiled and expected values normalised,
+ * so evaluating them on each poll is cheap.
+ *
+ * <p>For example, to wait for a case to be both archived and have a second address line:
+ *
+ * <pre>
+ * ContentMatcher.allOf(
+ *     ContentMatcher.equalTo("state", "ARCHIVED"),
+ *     ContentMatcher.equalTo("address.addressLine2", "Flat 1"))
+ * </pre>
+ *
+ * <p>Values are compared the way Firestore stores them, so a matcher expecting the Integer 3
+ * matches a field holding the Long 3 or the Double 3.0.
+ */
+public abstract class ContentMatcher {
+
+  /** Gives a matcher access to the fields of the object being tested */
+  interface FieldSource {
+    Object get(ContentPath path);
+  }
+
+  private ContentMatcher() {}
+
+  /**
+   * Match a field holding a given value. Numbers are compared by value, whatever their type. A Map
+   * matches an object field holding at least its entries, with nested values matched in the same
+   * way. A List matches an array field holding the same number of elements, each matched in the
+   * same way and in the same order. Any other value must be equal to the field's.
+   *
+   * @param path the dotted path to the field, eg, 'contact.forename'
+   * @param expectedValue the value the field must hold
+   * @return the matcher
+   */
+  public static ContentMatcher equalTo(String path, Object expectedValue) {
+    return new FieldMatcher(ContentPath.of(path), expected(expectedValue), false);
+  }
+
+  /**
+   * Match an array field holding at least one element equal to a given value, compared as for
+   * {@link #equalTo(String, Object)}.
+   *
+   * @param path the dotted path to the field, eg, 'uacs'
+   * @param expectedElement the value one of the elements of the field must hold
+   * @return the matcher
+   */
+  public static ContentMatcher listContains(String path, Object expectedElement) {
+    return new FieldMatcher(ContentPath.of(path), expected(expectedElement), true);
+  }
+
+  /**
+   * Match an object that satisfies every one of a number of matchers.
+   *
+   * @param matchers the matchers to combine
+   * @return the matcher
+   */
+  public static ContentMatcher allOf(ContentMatcher... matchers) {
+    return new AllOf(Arrays.asList(matchers));
+  }
+
+  /**
+   * Match an object that satisfies every one of a number of matchers.
+   *
+   * @param matchers the matchers to combine
+   * @return the matcher
+   */
+  public static ContentMatcher allOf(Collection<ContentMatcher> matchers) {
+    return new AllOf(new ArrayList<>(matchers));
+  }
+
+  /**
+   * Test an object.
+   *
+   * @param fields the fields of the object
+   * @return true if the object matches
+   */
+  abstract boolean matches(FieldSource fields);
+
+  /**
+   * Test an object held as nested maps, as Firestore hands them out.
+   *
+   * @param fields the fields of the object
+   * @return true if the object matches
+   */
+  boolean matches(Map<String, ?> fields) {
+    return matches(path -> path.resolve(fields));
+  }
+
+  /** @param paths gathers the paths of all fields that this matcher reads */
+  abstract void collectPaths(Set<ContentPath> paths);
+
+  private static final class FieldMatcher extends ContentMatcher {
+    private final ContentPath path;
+    private final Object expectedValue;
+    private final boolean anyElement;
+
+    FieldMatcher(ContentPath path, Object expectedValue, boolean anyElement) {
+      this.path = path;
+      this.expectedValue = expectedValue;
+      this.anyElement = anyElement;
+    }
+
+    @Override
+    boolean matches(FieldSource fields) {
+      Object actualValue = fields.get(path);
+      if (!anyElement) {
+        return valueMatches(expectedValue, actualValue);
+      }
+      if (actualValue instanceof Collection) {
+        for (Object element : (Collection<?>) actualValue) {
+          if (valueMatches(expectedValue, element)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    void collectPaths(Set<ContentPath> paths) {
+      paths.add(path);
+    }
+
+    @Override
+    public String toString() {
+      return "'" + path + (anyElement ? "' contains '" : "' equals '") + expectedValue + "'";
+    }
+  }
+
+  private static final class AllOf extends ContentMatcher {
+    private final List<ContentMatcher> matchers;
+
+    AllOf(List<ContentMatcher> matchers) {
+      for (ContentMatcher matcher : matchers) {
+        Objects.requireNonNull(matcher, "matcher");
+      }
+      this.matchers = matchers;
+    }
+
+    @Override
+    boolean matches(FieldSource fields) {
+      for (ContentMatcher matcher : matchers) {
+        if (!matcher.matches(fields)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    void collectPaths(Set<ContentPath> paths) {
+      for (ContentMatcher matcher : matchers) {
+        matcher.collectPaths(paths);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return matchers.toString();
+    }
+  }
+
+  /** Normalise an expected value, so that it doesn't need converting on every comparison */
+  private static Object expected(Object value) {
+    Objects.requireNonNull(value, "expected value");
+    if (value instanceof Map) {
+      Map<String, Object> normalised = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        normalised.put(String.valueOf(entry.getKey()), expected(entry.getValue()));
+      }
+      return Collections.unmodifiableMap(normalised);
+    }
+    if (value instanceof Collection) {
+      List<Object> normalised = new ArrayList<>();
+      for (Object element : (Collection<?>) value) {
+        normalised.add(expected(element));
+      }
+      return Collections.unmodifiableList(normalised);
+    }
+    if (value instanceof Number) {
+      BigDecimal decimal = toDecimal((Number) value);
+      return decimal != null ? decimal : value;
+    }
+    return value;
+  }
+
+  private static boolean valueMatches(Object expectedValue, Object actualValue) {
+    if (actualValue == null) {
+      return false;
+    }
+    if (expectedValue instanceof BigDecimal) {
+      if (!(actualValue instanceof Number)) {
+        return false;
+      }
+      BigDecimal actual = toDecimal((Number) actualValue);
+      return actual != null && ((BigDecimal) expectedValue).compareTo(actual) == 0;
+    }
+    if (expectedValue instanceof Map) {
+      if (!(actualValue instanceof Map)) {
+        return false;
+      }
+      Map<?, ?> actual = (Map<?, ?>) actualValue;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) expectedValue).entrySet()) {
+        if (!valueMatches(entry.getValue(), actual.get(entry.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (expectedValue instanceof List) {
+      if (!(actualValue instanceof Collection)) {
+        return false;
+      }
+      List<?> expected = (List<?>) expectedValue;
+      Collection<?> actual = (Collection<?>) actualValue;
+      if (expected.size() != actual.size()) {
+        return false;
+      }
+      Iterator<?> actualElements = actual.iterator();
+      for (Object expectedElement : expected) {
+        if (!valueMatches(expectedElement, actualElements.next())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return expectedValue.equals(actualValue);
+  }
+
+  /** @return the value as a BigDecimal, or null if it is NaN or infinite */
+  private static BigDecimal toDecimal(Number value) {
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    }
+    if (value instanceof Double || value instanceof Float) {
+      double d = value.doubleValue();
+      return Double.isNaN(d) || Double.isInfinite(d) ? null : BigDecimal.valueOf(d);
+    }
+    return new BigDecimal(value.toString());
+  }
+}
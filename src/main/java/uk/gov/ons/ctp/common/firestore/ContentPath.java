@@ -0,0 +1,62 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import com.google.cloud.firestore.FieldPath;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A dotted path to a field of a Firestore object, eg, 'contact.forename', split into its segments
+ * and compiled to a FieldPath once. Compiled paths are cached, as tests tend to wait on the same
+ * handful of fields over and over again.
+ */
+final class ContentPath {
+  private static final ConcurrentMap<String, ContentPath> cache = new ConcurrentHashMap<>();
+
+  private final String path;
+  private final String[] segments;
+  private final FieldPath fieldPath;
+
+  private ContentPath(String path) {
+    this.path = path;
+    this.segments = path.split("\\.");
+    this.fieldPath = FieldPath.of(segments);
+  }
+
+  /**
+   * Get the compiled form of a path.
+   *
+   * @param path the dotted path to a field
+   * @return the compiled path
+   */
+  static ContentPath of(String path) {
+    ContentPath compiled = cache.get(path);
+    return compiled != null ? compiled : cache.computeIfAbsent(path, ContentPath::new);
+  }
+
+  FieldPath getFieldPath() {
+    return fieldPath;
+  }
+
+  /**
+   * Find the value of the field within an object held as nested maps, as Firestore hands them out.
+   *
+   * @param fields the fields of the object
+   * @return the value of the field, or null if there is no such field
+   */
+  Object resolve(Map<String, ?> fields) {
+    Object value = fields;
+    for (String segment : segments) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      value = ((Map<?, ?>) value).get(segment);
+    }
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -0,0 +1,185 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+
+/**
+ * This is a Firestore utility class to help test code wait for many objects to arrive in Firestore
+ * at once, eg, after publishing a batch of events.
+ *
+ * <p>Rather than polling for each object in turn, each round reads all outstanding objects with
+ * batched multi-document reads, and objects are dropped from later rounds once they have been
+ * found. Waiting for a few hundred objects therefore costs a handful of round trips per round.
+ *
+ * <p>See {@link FirestoreWait} for details of how to choose the Firestore project to connect to.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FirestoreBatchWait {
+  private static final Logger log = LoggerFactory.getLogger(FirestoreBatchWait.class);
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+
+  // This is the name of the collection to search, eg, 'case'
+  @NonNull private String collection;
+
+  // These are the keys of the target objects in the collection
+  @NonNull private Collection<String> keys;
+
+  // This is an optional argument to specify the timestamp that the objects must have been updated
+  // after. This value is the number of milliseconds since the epoch.
+  private Long newerThan;
+
+  // This is an optional path to a field whose content we check to decide if an object has been
+  // updated, eg, 'contact.forename' or 'state'.
+  private String contentCheckPath;
+
+  // This is the value that a field must contain if 'contentCheckPath' has been specified.
+  private String expectedValue;
+
+  // This is an optional, typed test of the content of the objects. See FirestoreWait.
+  private ContentMatcher contentMatcher;
+
+  // This specifies the number of milliseconds that the caller is prepared to wait for all of the
+  // objects to appear in Firestore.
+  @NonNull private Long timeout;
+
+  // This optionally limits the number of objects read in a single request. Defaults to 100.
+  private Integer batchSize;
+
+  // This optionally controls how the delay between rounds of reads grows. Defaults to FIXED.
+  private BackoffStrategy backoff;
+
+  // This is the optional number of milliseconds to wait after the first round. Defaults to 10.
+  private Long initialDelay;
+
+  // This optionally caps the number of milliseconds between rounds. Defaults to 1000.
+  private Long maxDelay;
+
+  // If supplied then this collects metrics about the wait. Each batched read counts as an attempt.
+  private FirestoreWaitMetrics metrics;
+
+  // This is the optional service used to read Firestore. Defaults to the shared instance.
+  private FirestoreService firestoreService;
+
+  /**
+   * This method allows the caller to wait for a number of objects to appear in Firestore. Waiting
+   * ends as soon as all objects have been found, or the timeout period is reached.
+   *
+   * <p>As with {@link FirestoreWait}, the caller can optionally wait for the objects to be updated
+   * by specifying the updated timestamp and/or by the content of a named field.
+   *
+   * @return The update timestamp of each object, keyed by object key in the order the keys were
+   *     supplied. The timestamp is null for any object not found within the timeout.
+   * @throws CTPException in the event of a failure being detected. This will be of type
+   *     Fault.VALIDATION_FAILED if any arguments fail validation, or type Fault.SYSTEM_ERROR if
+   *     there is a Firestore exception.
+   */
+  public Map<String, Long> waitForObjects() throws CTPException {
+    final long startTime = System.currentTimeMillis();
+    final long timeoutLimit = startTime + timeout;
+
+    log.info(
+        "Firestore batch wait. Looking for collection '"
+            + collection
+            + "' to contain "
+            + keys.size()
+            + " objects for up to '"
+            + timeout
+            + "'");
+
+    // Validate matching path+value arguments
+    if (contentCheckPath != null ^ expectedValue != null) {
+      String errorMessage =
+          "Mismatched 'path' and 'value' arguments."
+              + " Either both must be supplied or neither supplied";
+      log.error(errorMessage);
+      throw new CTPException(Fault.VALIDATION_FAILED, errorMessage);
+    }
+    ContentMatcher matcher = contentMatcher;
+    if (contentCheckPath != null) {
+      ContentMatcher pathMatcher = ContentMatcher.equalTo(contentCheckPath, expectedValue);
+      matcher = matcher == null ? pathMatcher : ContentMatcher.allOf(pathMatcher, matcher);
+    }
+    int effectiveBatchSize = batchSize == null ? DEFAULT_BATCH_SIZE : batchSize;
+    if (effectiveBatchSize < 1) {
+      String errorMessage = "Batch size must be at least 1";
+      log.error(errorMessage);
+      throw new CTPException(Fault.VALIDATION_FAILED, errorMessage);
+    }
+
+    Map<String, Long> results = new LinkedHashMap<>();
+    for (String key : keys) {
+      results.put(key, null);
+    }
+    Set<String> outstanding = new LinkedHashSet<>(results.keySet());
+
+    // Keep reading the outstanding objects until all are found, or we timeout waiting. If
+    // Firestore reports that our quota is exhausted then the round is cut short and we back off.
+    FirestoreService service = service();
+    FirestoreWaitMetrics waitMetrics = metrics == null ? new FirestoreWaitMetrics() : metrics;
+    Backoff delays = new Backoff(backoff, initialDelay, maxDelay);
+    do {
+      long delay;
+      List<String> pending = new ArrayList<>(outstanding);
+      try {
+        for (int i = 0; i < pending.size(); i += effectiveBatchSize) {
+          List<String> batch =
+              pending.subList(i, Math.min(i + effectiveBatchSize, pending.size()));
+          waitMetrics.recordAttempt();
+          Map<String, Long> found = service.objectsExist(collection, batch, newerThan, matcher);
+          for (Map.Entry<String, Long> entry : found.entrySet()) {
+            results.put(entry.getKey(), entry.getValue());
+            outstanding.remove(entry.getKey());
+          }
+        }
+        delay = delays.nextDelay();
+      } catch (ResourceExhaustedException e) {
+        waitMetrics.recordThrottled();
+        delay = delays.throttledDelay();
+      }
+
+      if (outstanding.isEmpty()) {
+        waitMetrics.recordSeen(System.currentTimeMillis() - startTime);
+        break;
+      }
+
+      // Don't sleep beyond the end of the timeout period
+      delay = Math.min(delay, Math.max(timeoutLimit - System.currentTimeMillis(), 0));
+      try {
+        Thread.sleep(delay);
+        waitMetrics.recordSleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    } while (System.currentTimeMillis() < timeoutLimit);
+
+    log.info(
+        "Firestore batch wait. Found "
+            + (results.size() - outstanding.size())
+            + " of "
+            + results.size()
+            + " objects. "
+            + waitMetrics);
+    return results;
+  }
+
+  private FirestoreService service() {
+    return firestoreService != null ? firestoreService : FirestoreService.instance();
+  }
+}
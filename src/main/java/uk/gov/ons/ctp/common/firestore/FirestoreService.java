@@ -3,55 +3,198 @@ package uk.gov.ons.ctp.common.firestore;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
 import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FirestoreOptions;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
-import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.error.CTPException.Fault;
 
 /**
  * This class is responsible for communication with Firestore.
  *
- * <p>It runs as a singleton so that it can reuse it's Firestore connection.
+ * <p>The shared instance used by default by FirestoreWait and FirestoreBatchWait is created the
+ * first time it is needed, so that merely loading those classes does not open a connection. Its
+ * settings can be chosen beforehand with {@link #configure(Config)}, eg, to use the local
+ * emulator. Alternatively, create a FirestoreService directly and supply it to a wait's builder.
  */
-class FirestoreService {
+public class FirestoreService {
   private static final Logger log = LoggerFactory.getLogger(FirestoreService.class);
 
-  private static FirestoreService instance = new FirestoreService();
+  // The emulator host is taken from this environment variable if it is not configured explicitly
+  static final String EMULATOR_HOST_ENV = "FIRESTORE_EMULATOR_HOST";
+
+  private static Config config = Config.builder().build();
+  private static volatile FirestoreService instance;
 
   private Firestore firestore;
   private String gcpProject;
 
-  public static synchronized FirestoreService instance() {
-    return instance;
+  /** The settings used to connect to Firestore. Any settings not supplied take their defaults. */
+  @Builder
+  @Getter
+  @ToString
+  public static class Config {
+    // The id of the GCP project to connect to. Defaults to the project of the environment, eg,
+    // as chosen with 'gcloud config set project'.
+    private String projectId;
+
+    // The 'host:port' of a Firestore emulator to connect to over plaintext without credentials.
+    // Defaults to the value of the FIRESTORE_EMULATOR_HOST environment variable, if set.
+    private String emulatorHost;
+
+    // The number of gRPC channels to spread requests over. Raising this helps when running large
+    // numbers of concurrent waits. Defaults to the client library's default of 1.
+    private Integer channelPoolSize;
+
+    // The executor used by the gRPC channels. Defaults to one managed by the client library.
+    private ScheduledExecutorService executor;
+  }
+
+  /**
+   * Get the shared instance, connecting to Firestore if this is the first time it has been asked
+   * for.
+   *
+   * @return the shared instance
+   */
+  public static FirestoreService instance() {
+    FirestoreService service = instance;
+    if (service == null) {
+      synchronized (FirestoreService.class) {
+        service = instance;
+        if (service == null) {
+          service = new FirestoreService(config);
+          instance = service;
+        }
+      }
+    }
+    return service;
   }
 
-  private FirestoreService() {
-    firestore = FirestoreOptions.getDefaultInstance().getService();
+  /**
+   * Choose the settings for the shared instance. If the shared instance is already connected then
+   * it is shut down, and the next wait reconnects with the new settings.
+   *
+   * @param newConfig the settings to use
+   */
+  public static synchronized void configure(Config newConfig) {
+    config = newConfig == null ? Config.builder().build() : newConfig;
+    if (instance != null) {
+      instance.shutdown();
+    }
+  }
+
+  /**
+   * Connect to Firestore.
+   *
+   * @param config the settings to use
+   */
+  public FirestoreService(Config config) {
+    firestore = buildOptions(config).getService();
 
     gcpProject = firestore.getOptions().getProjectId();
     log.info("Connected to Firestore project: " + gcpProject);
   }
 
+  /**
+   * Constructor for use by subclasses that don't talk to a real Firestore, such as test
+   * stand-ins. Subclasses must override every public method that reads from Firestore.
+   *
+   * @param gcpProject the name of the project, which prefixes collection names
+   */
+  protected FirestoreService(String gcpProject) {
+    this.gcpProject = gcpProject;
+  }
+
+  /**
+   * Close the connection to Firestore. If this is the shared instance then the next call to
+   * {@link #instance()} creates a new one.
+   */
+  public void shutdown() {
+    synchronized (FirestoreService.class) {
+      if (instance == this) {
+        instance = null;
+      }
+    }
+    if (firestore != null) {
+      try {
+        firestore.close();
+        log.info("Disconnected from Firestore project: " + gcpProject);
+      } catch (Exception e) {
+        log.warn("Failed to cleanly close connection to Firestore project: " + gcpProject);
+      }
+    }
+  }
+
+  /** @return the name of the project, which prefixes collection names */
+  String getGcpProject() {
+    return gcpProject;
+  }
+
+  /**
+   * Build the client options. This starts from an empty builder rather than the default instance,
+   * as the default instance looks up the project and credentials of the environment before any
+   * configured settings can be applied, which fails on a machine with neither.
+   */
+  private static FirestoreOptions buildOptions(Config config) {
+    FirestoreOptions.Builder options = FirestoreOptions.newBuilder();
+    if (config.getProjectId() != null) {
+      options.setProjectId(config.getProjectId());
+    }
+
+    InstantiatingGrpcChannelProvider.Builder channel =
+        FirestoreOptions.getDefaultTransportChannelProviderBuilder();
+    String emulatorHost =
+        config.getEmulatorHost() != null
+            ? config.getEmulatorHost()
+            : System.getenv(EMULATOR_HOST_ENV);
+    if (emulatorHost != null) {
+      log.info("Using Firestore emulator: " + emulatorHost);
+      options.setHost(emulatorHost).setCredentials(NoCredentials.getInstance());
+      channel.setEndpoint(emulatorHost).setChannelConfigurator(b -> b.usePlaintext());
+    }
+    if (config.getChannelPoolSize() != null) {
+      channel.setPoolSize(config.getChannelPoolSize());
+    }
+    if (config.getExecutor() != null) {
+      channel.setExecutorProvider(FixedExecutorProvider.create(config.getExecutor()));
+    }
+    return options.setChannelProvider(channel.build()).build();
+  }
+
   public long objectExists(
-      String collectionName,
-      String key,
-      Long newerThan,
-      String contentCheckPath,
-      String expectedValue)
+      String collectionName, String key, Long newerThan, ContentMatcher contentMatcher)
       throws CTPException {
-    // Run a query
     String schema = gcpProject + "-" + collectionName;
-    FieldPath fieldPathForId = FieldPath.documentId();
-    ApiFuture<QuerySnapshot> query =
-        firestore.collection(schema).whereEqualTo(fieldPathForId, key).get();
+    ApiFuture<DocumentSnapshot> read = readObject(schema, key, contentMatcher);
 
-    // Wait for query to complete and get results
-    QuerySnapshot querySnapshot;
+    // Wait for the read to complete
+    DocumentSnapshot targetDocument;
     try {
-      querySnapshot = query.get();
+      targetDocument = read.get();
     } catch (Exception e) {
       String failureMessage =
           "Exception caught whilst attempting to find object in schema '"
@@ -59,19 +202,238 @@ class FirestoreService {
               + "' for key '"
               + key
               + "'";
-      log.error(e, failureMessage);
-      throw new CTPException(Fault.SYSTEM_ERROR, e, failureMessage);
+      throw readFailure(e, failureMessage);
     }
 
     // Bail out if nothing found
-    if (querySnapshot.isEmpty()) {
+    if (!targetDocument.exists()) {
       return -1;
     }
 
-    // Get hold of candidate object
-    QueryDocumentSnapshot targetDocument = querySnapshot.getDocuments().get(0);
+    return evaluate(targetDocument, newerThan, contentMatcher);
+  }
+
+  /**
+   * The non-blocking equivalent of objectExists. The read is issued immediately and the returned
+   * future completes on a Firestore thread once the result is known, so callers should not block
+   * in any stages they chain on to it.
+   *
+   * @param collectionName the name of the collection
+   * @param key the key of the target object
+   * @param newerThan optional timestamp that the object must have been updated after
+   * @param contentMatcher optional test of the content of the object
+   * @return a future holding the update time of the object, or -1 if it does not satisfy the
+   *     criteria. If the read fails the future completes exceptionally with a CTPException.
+   */
+  public CompletableFuture<Long> objectExistsAsync(
+      String collectionName, String key, Long newerThan, ContentMatcher contentMatcher) {
+    String schema = gcpProject + "-" + collectionName;
+    ApiFuture<DocumentSnapshot> read = readObject(schema, key, contentMatcher);
+
+    CompletableFuture<Long> result = new CompletableFuture<>();
+    ApiFutures.addCallback(
+        read,
+        new ApiFutureCallback<DocumentSnapshot>() {
+          @Override
+          public void onSuccess(DocumentSnapshot targetDocument) {
+            try {
+              if (!targetDocument.exists()) {
+                result.complete(-1L);
+              } else {
+                result.complete(evaluate(targetDocument, newerThan, contentMatcher));
+              }
+            } catch (RuntimeException e) {
+              // Firestore would otherwise only log this, leaving the future never to complete
+              result.completeExceptionally(e);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            String failureMessage =
+                "Exception caught whilst attempting to find object in schema '"
+                    + schema
+                    + "' for key '"
+                    + key
+                    + "'";
+            result.completeExceptionally(readFailure(t, failureMessage));
+          }
+        },
+        MoreExecutors.directExecutor());
+    return result;
+  }
+
+  /**
+   * Check which of a number of objects exist, reading them all in a single round trip.
+   *
+   * @param collectionName the name of the collection
+   * @param keys the keys of the target objects
+   * @param newerThan optional timestamp that an object must have been updated after
+   * @param contentMatcher optional test of the content of the object
+   * @return the update times of the objects that satisfy the criteria, keyed by object key
+   * @throws CTPException if there is a Firestore exception
+   */
+  public Map<String, Long> objectsExist(
+      String collectionName, List<String> keys, Long newerThan, ContentMatcher contentMatcher)
+      throws CTPException {
+    String schema = gcpProject + "-" + collectionName;
+    CollectionReference collection = firestore.collection(schema);
+    DocumentReference[] documents = new DocumentReference[keys.size()];
+    for (int i = 0; i < documents.length; i++) {
+      documents[i] = collection.document(keys.get(i));
+    }
+    FieldMask fieldMask = fieldMask(contentMatcher);
+
+    List<DocumentSnapshot> targetDocuments;
+    try {
+      targetDocuments = firestore.getAll(documents, fieldMask).get();
+    } catch (Exception e) {
+      String failureMessage =
+          "Exception caught whilst attempting to find "
+              + keys.size()
+              + " objects in schema '"
+              + schema
+              + "'";
+      throw readFailure(e, failureMessage);
+    }
+
+    Map<String, Long> found = new HashMap<>();
+    for (DocumentSnapshot targetDocument : targetDocuments) {
+      if (targetDocument.exists()) {
+        long objectUpdateMillis = evaluate(targetDocument, newerThan, contentMatcher);
+        if (objectUpdateMillis > 0) {
+          found.put(targetDocument.getId(), objectUpdateMillis);
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Register a listener which is notified whenever the target object is written. The listener is
+   * called with the update time of the object each time a snapshot of it satisfies the criteria,
+   * until the returned registration is removed.
+   *
+   * @param collectionName the name of the collection
+   * @param key the key of the target object
+   * @param newerThan optional timestamp that the object must have been updated after
+   * @param contentMatcher optional test of the content of the object
+   * @param onFound called with the update time of a matching snapshot
+   * @param onError called if Firestore reports a failure of the listener
+   * @return the registration, which must be removed once the caller is no longer interested
+   */
+  public ListenerRegistration listenForObject(
+      String collectionName,
+      String key,
+      Long newerThan,
+      ContentMatcher contentMatcher,
+      Consumer<Long> onFound,
+      Consumer<Exception> onError) {
+    String schema = gcpProject + "-" + collectionName;
+    DocumentReference document = firestore.collection(schema).document(key);
+
+    return document.addSnapshotListener(
+        (snapshot, error) -> {
+          if (error != null) {
+            log.error(
+                error,
+                "Snapshot listener failed for schema '" + schema + "' and key '" + key + "'");
+            onError.accept(error);
+            return;
+          }
+          if (snapshot == null || !snapshot.exists()) {
+            return;
+          }
+          long objectUpdateMillis = evaluate(snapshot, newerThan, contentMatcher);
+          if (objectUpdateMillis > 0) {
+            onFound.accept(objectUpdateMillis);
+          }
+        });
+  }
+
+  /** Start a direct read of a document. */
+  private ApiFuture<DocumentSnapshot> readObject(
+      String schema, String key, ContentMatcher contentMatcher) {
+    DocumentReference document = firestore.collection(schema).document(key);
+    FieldMask fieldMask = fieldMask(contentMatcher);
+    return fieldMask == null ? document.get() : document.get(fieldMask);
+  }
+
+  /**
+   * If we only need to check the content of some fields then the read is restricted to those
+   * fields, so the rest of the document doesn't travel over the wire.
+   *
+   * @param contentMatcher optional test of the content of the object
+   * @return the mask to read with, or null to read the whole document
+   */
+  private static FieldMask fieldMask(ContentMatcher contentMatcher) {
+    if (contentMatcher == null) {
+      return null;
+    }
+    Set<ContentPath> paths = new LinkedHashSet<>();
+    contentMatcher.collectPaths(paths);
+    FieldPath[] fieldPaths = new FieldPath[paths.size()];
+    int i = 0;
+    for (ContentPath path : paths) {
+      fieldPaths[i++] = path.getFieldPath();
+    }
+    return FieldMask.of(fieldPaths);
+  }
+
+  /**
+   * Build the exception to throw for a failed read. If Firestore rejected the read because the
+   * project's quota is exhausted then a ResourceExhaustedException is returned, so that waits can
+   * back off rather than fail.
+   *
+   * @param e the cause of the failure
+   * @param failureMessage describes the read that failed
+   * @return the exception to throw
+   */
+  private CTPException readFailure(Throwable e, String failureMessage) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ApiException
+          && ((ApiException) cause).getStatusCode().getCode()
+              == StatusCode.Code.RESOURCE_EXHAUSTED) {
+        log.warn("Firestore resource exhausted. " + failureMessage);
+        return new ResourceExhaustedException(e, failureMessage);
+      }
+    }
+    log.error(e, failureMessage);
+    return new CTPException(Fault.SYSTEM_ERROR, e, failureMessage);
+  }
+
+  /**
+   * Decide if a snapshot of the target object satisfies the wait criteria.
+   *
+   * @param targetDocument a snapshot of an existing object
+   * @param newerThan optional timestamp that the object must have been updated after
+   * @param contentMatcher optional test of the content of the object
+   * @return the update time of the object, or -1 if it does not satisfy the criteria
+   */
+  private long evaluate(
+      DocumentSnapshot targetDocument, Long newerThan, ContentMatcher contentMatcher) {
     long objectUpdateMillis = targetDocument.getUpdateTime().toDate().getTime();
+    return evaluate(
+        objectUpdateMillis,
+        newerThan,
+        contentMatcher,
+        path -> targetDocument.get(path.getFieldPath()));
+  }
 
+  /**
+   * Decide if an object satisfies the wait criteria.
+   *
+   * @param objectUpdateMillis the update time of the object
+   * @param newerThan optional timestamp that the object must have been updated after
+   * @param contentMatcher optional test of the content of the object
+   * @param fields gives access to the fields of the object
+   * @return the update time of the object, or -1 if it does not satisfy the criteria
+   */
+  static long evaluate(
+      long objectUpdateMillis,
+      Long newerThan,
+      ContentMatcher contentMatcher,
+      ContentMatcher.FieldSource fields) {
     // Optionally, only regard the object as existing if it is newer than the specified time
     if (newerThan != null) {
       if (!(objectUpdateMillis > newerThan)) {
@@ -79,15 +441,9 @@ class FirestoreService {
       }
     }
 
-    // Optionally, determine if named field is in the expected state
-    if (contentCheckPath != null && expectedValue != null) {
-      String[] parts = contentCheckPath.split("\\.");
-      FieldPath fieldPath = FieldPath.of(parts);
-      Object actualValue = targetDocument.get(fieldPath);
-
-      if (!expectedValue.equals(actualValue)) {
-        return -1;
-      }
+    // Optionally, determine if the named fields are in the expected state
+    if (contentMatcher != null && !contentMatcher.matches(fields)) {
+      return -1;
     }
 
     return objectUpdateMillis;
@@ -2,6 +2,18 @@ package uk.gov.ons.ctp.common.firestore;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import com.google.cloud.firestore.ListenerRegistration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NoArgsConstructor;
@@ -24,10 +36,26 @@ import uk.gov.ons.ctp.common.error.CTPException.Fault;
  */
 @Builder
 @NoArgsConstructor
-@AllArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class FirestoreWait {
   private static final Logger log = LoggerFactory.getLogger(FirestoreWait.class);
 
+  // Schedules the polls and timeouts of asynchronous waits. Waits only occupy a thread while a poll
+  // is being issued or a result evaluated, so a couple of threads serve any number of waits.
+  private static final ScheduledExecutorService scheduler =
+      Executors.newScheduledThreadPool(
+          2,
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "firestore-wait-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
   // This is the name of the collection to search, eg, 'case'
   @NonNull private String collection;
 
@@ -54,6 +82,58 @@ public class FirestoreWait {
   // to appear in Firestore.
   @NonNull private Long timeout;
 
+  // This is an optional, typed test of the content of the object, which can check numbers,
+  // booleans, nested objects, array elements and several fields at once. If 'contentCheckPath' is
+  // also specified then both must be satisfied.
+  private ContentMatcher contentMatcher;
+
+  // If true, then rather than repeatedly polling Firestore a snapshot listener is registered on
+  // the target object, and waiting ends as soon as Firestore notifies us of a matching write. If
+  // the listener fails then waiting falls back to polling for the rest of the timeout period.
+  private boolean useSnapshotListener;
+
+  // This optionally controls how the delay between polls of Firestore grows. Defaults to FIXED.
+  // Firestore rejecting a read as exceeding the project's quota always lengthens the delay.
+  private BackoffStrategy backoff;
+
+  // This is the optional number of milliseconds to wait after the first poll. Defaults to 10.
+  private Long initialDelay;
+
+  // This optionally caps the number of milliseconds between polls. Defaults to 1000.
+  private Long maxDelay;
+
+  // If supplied then this collects metrics about the wait, such as the number of reads made.
+  private FirestoreWaitMetrics metrics;
+
+  // This is the optional service used to read Firestore. Defaults to the shared instance.
+  private FirestoreService firestoreService;
+
+  /**
+   * Constructor taking the original set of arguments, for callers that don't use the builder. All
+   * other settings take their defaults.
+   *
+   * @param collection the name of the collection to search
+   * @param key the key of the target object in the collection
+   * @param newerThan optional timestamp that the object must have been updated after
+   * @param contentCheckPath optional path to a field whose content must match 'expectedValue'
+   * @param expectedValue the value the field must contain if 'contentCheckPath' is specified
+   * @param timeout the number of milliseconds to wait for the object
+   */
+  public FirestoreWait(
+      @NonNull String collection,
+      @NonNull String key,
+      Long newerThan,
+      String contentCheckPath,
+      String expectedValue,
+      @NonNull Long timeout) {
+    this.collection = collection;
+    this.key = key;
+    this.newerThan = newerThan;
+    this.contentCheckPath = contentCheckPath;
+    this.expectedValue = expectedValue;
+    this.timeout = timeout;
+  }
+
   /**
    * This method allows the caller to wait for an object to appear in Firestore. If the object is
    * found within the timeout period then it returns with the update time of the object, otherwise
@@ -63,6 +143,11 @@ public class FirestoreWait {
    * timestamp or by the content of a named field. If both criteria are specified then both
    * conditions must be satisfied before we regard the object has having arrived in Firestore.
    *
+   * <p>By default Firestore is polled until the object is found. Setting 'useSnapshotListener'
+   * instead waits to be notified of the write, which saves both reads and latency. When polling,
+   * 'backoff', 'initialDelay' and 'maxDelay' trade the number of reads against how quickly the
+   * object is noticed.
+   *
    * @return The update timestamp of a found object, or null if not found within the timeout.
    * @throws CTPException in the event of a failure being detected. This will be of type
    *     Fault.VALIDATION_FAILED if any arguments fail validation, or type Fault.SYSTEM_ERROR if
@@ -72,6 +157,75 @@ public class FirestoreWait {
     final long startTime = System.currentTimeMillis();
     final long timeoutLimit = startTime + timeout;
 
+    ContentMatcher matcher = logAndValidate();
+
+    FirestoreWaitMetrics waitMetrics = metrics == null ? new FirestoreWaitMetrics() : metrics;
+
+    if (useSnapshotListener) {
+      try {
+        return listenForObject(matcher, startTime, timeoutLimit, waitMetrics);
+      } catch (ExecutionException e) {
+        log.warn("Firestore wait. Snapshot listener failed, falling back to polling");
+      }
+    }
+
+    return pollForObject(matcher, startTime, timeoutLimit, waitMetrics);
+  }
+
+  /**
+   * The non-blocking equivalent of waitForObject. Rather than pinning the calling thread for the
+   * duration of the wait, each poll or snapshot listener notification is handled by a small shared
+   * scheduler, so that many concurrent waits can be composed, eg, with CompletableFuture.allOf.
+   *
+   * <p>Stages chained on to the returned future may run on Firestore or scheduler threads, so
+   * should not block. Cancelling the future stops the wait.
+   *
+   * @return A future holding the update timestamp of a found object, or null if not found within
+   *     the timeout. It completes exceptionally with a CTPException if any arguments fail
+   *     validation or there is a Firestore exception.
+   */
+  public CompletableFuture<Long> waitForObjectAsync() {
+    final long startTime = System.currentTimeMillis();
+    final long timeoutLimit = startTime + timeout;
+
+    CompletableFuture<Long> result = new CompletableFuture<>();
+    ContentMatcher matcher;
+    try {
+      matcher = logAndValidate();
+    } catch (CTPException e) {
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    FirestoreWaitMetrics waitMetrics = metrics == null ? new FirestoreWaitMetrics() : metrics;
+    // Give up at the end of the timeout even if a read or listener never reports back
+    ScheduledFuture<?> timer =
+        scheduler.schedule(
+            () -> {
+              if (result.complete(null)) {
+                log.debug("Failed to find object");
+              }
+            },
+            timeout,
+            TimeUnit.MILLISECONDS);
+    result.whenComplete((objectUpdateTimestamp, error) -> timer.cancel(false));
+    if (useSnapshotListener) {
+      listenForObjectAsync(result, matcher, startTime, timeoutLimit, waitMetrics);
+    } else {
+      Backoff delays = new Backoff(backoff, initialDelay, maxDelay);
+      pollForObjectAsync(result, matcher, delays, startTime, timeoutLimit, waitMetrics);
+    }
+    return result;
+  }
+
+  /**
+   * Log the criteria of the wait, validate them, and compile the content checks into a single
+   * matcher, so that they aren't parsed again on every poll.
+   *
+   * @return the matcher for the content of the object, or null if its content is not checked
+   * @throws CTPException of type Fault.VALIDATION_FAILED if any arguments fail validation
+   */
+  private ContentMatcher logAndValidate() throws CTPException {
     log.info(
         "Firestore wait. Looking for for collection '"
             + collection
@@ -95,7 +249,11 @@ public class FirestoreWait {
               + "' to contain '"
               + expectedValue
               + "'");
-    } else {
+    }
+    if (contentMatcher != null) {
+      log.info("Firestore wait. Content to match " + contentMatcher);
+    }
+    if (contentCheckPath == null && contentMatcher == null) {
       log.info("Firestore wait. Not waiting on object state");
     }
 
@@ -108,26 +266,107 @@ public class FirestoreWait {
       throw new CTPException(Fault.VALIDATION_FAILED, errorMessage);
     }
 
+    ContentMatcher matcher = contentMatcher;
+    if (contentCheckPath != null) {
+      ContentMatcher pathMatcher = ContentMatcher.equalTo(contentCheckPath, expectedValue);
+      matcher = matcher == null ? pathMatcher : ContentMatcher.allOf(pathMatcher, matcher);
+    }
+    return matcher;
+  }
+
+  /**
+   * Wait for the object by registering a snapshot listener on it.
+   *
+   * @param matcher the matcher for the content of the object, or null
+   * @param startTime the time at which waiting started, in milliseconds since the epoch
+   * @param timeoutLimit the time at which to give up waiting, in milliseconds since the epoch
+   * @param waitMetrics collects metrics about the wait
+   * @return The update timestamp of a found object, or null if not found within the timeout.
+   * @throws ExecutionException if the listener fails
+   */
+  private Long listenForObject(
+      ContentMatcher matcher, long startTime, long timeoutLimit, FirestoreWaitMetrics waitMetrics)
+      throws ExecutionException {
+    CompletableFuture<Long> found = new CompletableFuture<>();
+    ListenerRegistration registration;
+    try {
+      registration =
+          service()
+              .listenForObject(
+                  collection,
+                  key,
+                  newerThan,
+                  matcher,
+                  found::complete,
+                  found::completeExceptionally);
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+      return;
+    }
+    try {
+      long remaining = Math.max(timeoutLimit - System.currentTimeMillis(), 0);
+      Long objectUpdateTimestamp = found.get(remaining, TimeUnit.MILLISECONDS);
+      waitMetrics.recordSeen(System.currentTimeMillis() - startTime);
+      log.debug("Found object");
+      return objectUpdateTimestamp;
+    } catch (TimeoutException e) {
+      log.debug("Failed to find object");
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      registration.remove();
+    }
+  }
+
+  /**
+   * Wait for the object by repeatedly querying Firestore, backing off between queries.
+   *
+   * @param matcher the matcher for the content of the object, or null
+   * @param startTime the time at which waiting started, in milliseconds since the epoch
+   * @param timeoutLimit the time at which to give up waiting, in milliseconds since the epoch
+   * @param waitMetrics collects metrics about the wait
+   * @return The update timestamp of a found object, or null if not found within the timeout.
+   * @throws CTPException if there is a Firestore exception.
+   */
+  private Long pollForObject(
+      ContentMatcher matcher, long startTime, long timeoutLimit, FirestoreWaitMetrics waitMetrics)
+      throws CTPException {
     // Wait until the object appears in Firestore, or we timeout waiting
+    Backoff delays = new Backoff(backoff, initialDelay, maxDelay);
     boolean found = false;
-    long objectUpdateTimestamp;
+    long objectUpdateTimestamp = -1;
     do {
-      objectUpdateTimestamp =
-          FirestoreService.instance()
-              .objectExists(collection, key, newerThan, contentCheckPath, expectedValue);
-      if (objectUpdateTimestamp > 0) {
-        log.debug("Found object");
-        found = true;
-        break;
+      long delay;
+      waitMetrics.recordAttempt();
+      try {
+        objectUpdateTimestamp =
+            service().objectExists(collection, key, newerThan, matcher);
+        if (objectUpdateTimestamp > 0) {
+          waitMetrics.recordSeen(System.currentTimeMillis() - startTime);
+          log.debug("Found object");
+          found = true;
+          break;
+        }
+        delay = delays.nextDelay();
+      } catch (ResourceExhaustedException e) {
+        waitMetrics.recordThrottled();
+        delay = delays.throttledDelay();
       }
 
+      // Don't sleep beyond the end of the timeout period
+      delay = Math.min(delay, Math.max(timeoutLimit - System.currentTimeMillis(), 0));
       try {
-        Thread.sleep(10);
+        Thread.sleep(delay);
+        waitMetrics.recordSleep(delay);
       } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
         break;
       }
     } while (System.currentTimeMillis() < timeoutLimit);
 
+    log.debug("Firestore wait. " + waitMetrics);
     if (!found) {
       log.debug("Failed to find object");
       return null;
@@ -135,4 +374,148 @@ public class FirestoreWait {
 
     return objectUpdateTimestamp;
   }
+
+  /**
+   * Wait for the object by registering a snapshot listener on it, without blocking. If the
+   * listener fails then waiting falls back to polling.
+   */
+  private void listenForObjectAsync(
+      CompletableFuture<Long> result,
+      ContentMatcher matcher,
+      long startTime,
+      long timeoutLimit,
+      FirestoreWaitMetrics waitMetrics) {
+    CompletableFuture<Long> found = new CompletableFuture<>();
+    ListenerRegistration registration =
+        service()
+            .listenForObject(
+                collection,
+                key,
+                newerThan,
+                matcher,
+                found::complete,
+                found::completeExceptionally);
+    long remaining = Math.max(timeoutLimit - System.currentTimeMillis(), 0);
+    ScheduledFuture<?> timer =
+        scheduler.schedule(() -> found.complete(null), remaining, TimeUnit.MILLISECONDS);
+
+    found.whenComplete(
+        (objectUpdateTimestamp, error) -> {
+          registration.remove();
+          timer.cancel(false);
+          if (error == null) {
+            if (objectUpdateTimestamp != null) {
+              waitMetrics.recordSeen(System.currentTimeMillis() - startTime);
+            }
+            result.complete(objectUpdateTimestamp);
+          } else if (!result.isDone()) {
+            log.warn("Firestore wait. Snapshot listener failed, falling back to polling");
+            Backoff delays = new Backoff(backoff, initialDelay, maxDelay);
+            pollForObjectAsync(result, matcher, delays, startTime, timeoutLimit, waitMetrics);
+          }
+        });
+    // Stop listening if the caller cancels the wait
+    result.whenComplete((objectUpdateTimestamp, error) -> found.cancel(false));
+  }
+
+  /**
+   * Issue a single poll for the object, scheduling the next one once the result is known and the
+   * backoff delay has passed.
+   */
+  private void pollForObjectAsync(
+      CompletableFuture<Long> result,
+      ContentMatcher matcher,
+      Backoff delays,
+      long startTime,
+      long timeoutLimit,
+      FirestoreWaitMetrics waitMetrics) {
+    if (result.isDone()) {
+      return;
+    }
+    waitMetrics.recordAttempt();
+    CompletableFuture<Long> read;
+    try {
+      read = service().objectExistsAsync(collection, key, newerThan, matcher);
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+      return;
+    }
+    read.whenComplete(
+        (objectUpdateTimestamp, error) -> {
+          try {
+            scheduleNextPoll(
+                result,
+                matcher,
+                delays,
+                startTime,
+                timeoutLimit,
+                waitMetrics,
+                objectUpdateTimestamp,
+                error);
+          } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+          }
+        });
+  }
+
+  /**
+   * Complete the wait on the result of a poll, or schedule the next poll after the backoff delay
+   */
+  private void scheduleNextPoll(
+      CompletableFuture<Long> result,
+      ContentMatcher matcher,
+      Backoff delays,
+      long startTime,
+      long timeoutLimit,
+      FirestoreWaitMetrics waitMetrics,
+      Long objectUpdateTimestamp,
+      Throwable error) {
+    long delay;
+    if (error == null && objectUpdateTimestamp > 0) {
+      waitMetrics.recordSeen(System.currentTimeMillis() - startTime);
+      log.debug("Found object");
+      result.complete(objectUpdateTimestamp);
+      return;
+    } else if (error == null) {
+      delay = delays.nextDelay();
+    } else {
+      Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+      if (!(cause instanceof ResourceExhaustedException)) {
+        result.completeExceptionally(cause);
+        return;
+      }
+      waitMetrics.recordThrottled();
+      delay = delays.throttledDelay();
+    }
+
+    // Don't sleep beyond the end of the timeout period
+    long remaining = timeoutLimit - System.currentTimeMillis();
+    if (remaining <= 0) {
+      log.debug("Failed to find object");
+      result.complete(null);
+      return;
+    }
+    delay = Math.min(delay, remaining);
+    waitMetrics.recordSleep(delay);
+    scheduler.schedule(
+        () -> {
+          try {
+            if (System.currentTimeMillis() >= timeoutLimit) {
+              log.debug("Failed to find object");
+              result.complete(null);
+            } else {
+              pollForObjectAsync(result, matcher, delays, startTime, timeoutLimit, waitMetrics);
+            }
+          } catch (RuntimeException e) {
+            // The scheduler would otherwise swallow this, leaving the wait never to complete
+            result.completeExceptionally(e);
+          }
+        },
+        delay,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private FirestoreService service() {
+    return firestoreService != null ? firestoreService : FirestoreService.instance();
+  }
 }
@@ -0,0 +1,62 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.ToString;
+
+/**
+ * Collects metrics about a Firestore wait, so that polling can be tuned to balance read cost
+ * against responsiveness. Supply an instance to the 'metrics' field of a wait's builder and inspect
+ * it once the wait has finished.
+ *
+ * <p>An instance may be shared by waits running in parallel, in which case it holds their totals.
+ */
+@ToString
+public class FirestoreWaitMetrics {
+  // The number of times Firestore was read
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  // The total number of milliseconds spent sleeping between reads
+  private final AtomicLong totalSleepMillis = new AtomicLong();
+
+  // The number of milliseconds from the start of the wait until the wait criteria were first seen
+  // to be satisfied, or null if they never were. For a batch wait this is when all objects had
+  // been found.
+  private final AtomicReference<Long> firstSeenLatencyMillis = new AtomicReference<>();
+
+  // The number of reads rejected by Firestore as exceeding the project's quota
+  private final AtomicInteger throttledCount = new AtomicInteger();
+
+  public int getAttempts() {
+    return attempts.get();
+  }
+
+  public long getTotalSleepMillis() {
+    return totalSleepMillis.get();
+  }
+
+  public Long getFirstSeenLatencyMillis() {
+    return firstSeenLatencyMillis.get();
+  }
+
+  public int getThrottledCount() {
+    return throttledCount.get();
+  }
+
+  void recordAttempt() {
+    attempts.incrementAndGet();
+  }
+
+  void recordSleep(long millis) {
+    totalSleepMillis.addAndGet(millis);
+  }
+
+  void recordSeen(long latencyMillis) {
+    firstSeenLatencyMillis.compareAndSet(null, latencyMillis);
+  }
+
+  void recordThrottled() {
+    throttledCount.incrementAndGet();
+  }
+}
@@ -0,0 +1,334 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.google.cloud.firestore.ListenerRegistration;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/**
+ * An in-process stand-in for Firestore, for exercising waits without a GCP project or emulator.
+ * Supply it to a wait's builder through the 'firestoreService' field, and write objects to it as
+ * the system under test would write them to Firestore.
+ *
+ * <p>Objects are held as nested maps and lists, as Firestore hands them out. Every write is given
+ * an update time later than that of any previous write, so 'newerThan' checks behave predictably
+ * even when writes land within the same millisecond. Snapshot listeners are notified of writes and
+ * deletes, in order, on a single background thread.
+ *
+ * <p>Latency can be simulated for both reads and writes. A write with latency returns immediately
+ * but only becomes visible once the latency has passed, much like an event being processed by a
+ * service before landing in Firestore.
+ */
+public class InMemoryFirestoreService extends FirestoreService {
+  private static final Logger log = LoggerFactory.getLogger(InMemoryFirestoreService.class);
+
+  private final ConcurrentMap<String, ConcurrentMap<String, StoredObject>> collections =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, List<Watcher>> watchers = new ConcurrentHashMap<>();
+  private final AtomicLong lastUpdateTime = new AtomicLong();
+  private final ScheduledExecutorService scheduler;
+
+  private volatile Duration readLatency = Duration.ZERO;
+  private volatile Duration writeLatency = Duration.ZERO;
+
+  public InMemoryFirestoreService() {
+    super("in-memory");
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "in-memory-firestore");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** @param readLatency the time each read takes to complete */
+  public void setReadLatency(Duration readLatency) {
+    this.readLatency = readLatency == null ? Duration.ZERO : readLatency;
+  }
+
+  /** @param writeLatency the time before each write becomes visible */
+  public void setWriteLatency(Duration writeLatency) {
+    this.writeLatency = writeLatency == null ? Duration.ZERO : writeLatency;
+  }
+
+  /**
+   * Write an object, replacing any existing object with the same key.
+   *
+   * @param collectionName the name of the collection, eg, 'case'
+   * @param key the key of the object
+   * @param fields the fields of the object. These are deeply copied, including any nested maps
+   *     and lists, so later changes to them are not seen.
+   */
+  public void put(String collectionName, String key, Map<String, ?> fields) {
+    Map<String, Object> copy = copyOf(fields);
+    afterWriteLatency(() -> store(collectionName, key, copy));
+  }
+
+  /**
+   * Set a single field of an object, creating the object and any intermediate objects as needed.
+   *
+   * @param collectionName the name of the collection, eg, 'case'
+   * @param key the key of the object
+   * @param path the dotted path of the field, eg, 'contact.forename'
+   * @param value the new value of the field. Maps and lists are deeply copied.
+   */
+  public void update(String collectionName, String key, String path, Object value) {
+    Object copy = copyOfValue(value);
+    afterWriteLatency(
+        () -> {
+          synchronized (this) {
+            StoredObject existing = collection(collectionName).get(key);
+            Map<String, Object> fields =
+                existing == null ? new HashMap<>() : copyOf(existing.fields);
+            String[] segments = path.split("\\.");
+            Map<String, Object> parent = fields;
+            for (int i = 0; i < segments.length - 1; i++) {
+              Object child = parent.get(segments[i]);
+              Map<String, Object> childMap =
+                  child instanceof Map ? copyOf((Map<?, ?>) child) : new HashMap<>();
+              parent.put(segments[i], childMap);
+              parent = childMap;
+            }
+            parent.put(segments[segments.length - 1], copy);
+            store(collectionName, key, fields);
+          }
+        });
+  }
+
+  /**
+   * Delete an object.
+   *
+   * @param collectionName the name of the collection, eg, 'case'
+   * @param key the key of the object
+   */
+  public void delete(String collectionName, String key) {
+    afterWriteLatency(() -> remove(collectionName, key));
+  }
+
+  /**
+   * Read an object.
+   *
+   * @param collectionName the name of the collection, eg, 'case'
+   * @param key the key of the object
+   * @return the fields of the object, or null if there is no such object
+   */
+  public Map<String, Object> get(String collectionName, String key) {
+    StoredObject stored = collection(collectionName).get(key);
+    return stored == null ? null : stored.fields;
+  }
+
+  /** Delete every object */
+  public synchronized void clear() {
+    for (Map.Entry<String, ConcurrentMap<String, StoredObject>> collection :
+        collections.entrySet()) {
+      for (String key : collection.getValue().keySet()) {
+        remove(collection.getKey(), key);
+      }
+    }
+  }
+
+  /**
+   * Register to be told of every change to an object, as a snapshot listener would be. The
+   * listener is first told of the current state of the object.
+   *
+   * @param collectionName the name of the collection, eg, 'case'
+   * @param key the key of the object
+   * @param onChange receives the fields of the object after each write, or null once the object
+   *     has been deleted
+   * @return the registration, which stops the notifications when removed
+   */
+  ListenerRegistration watch(
+      String collectionName, String key, Consumer<Map<String, Object>> onChange) {
+    return addWatcher(
+        collectionName, key, stored -> onChange.accept(stored == null ? null : stored.fields));
+  }
+
+  @Override
+  public long objectExists(
+      String collectionName, String key, Long newerThan, ContentMatcher contentMatcher)
+      throws CTPException {
+    long latency = readLatency.toMillis();
+    if (latency > 0) {
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return evaluate(collection(collectionName).get(key), newerThan, contentMatcher);
+  }
+
+  @Override
+  public CompletableFuture<Long> objectExistsAsync(
+      String collectionName, String key, Long newerThan, ContentMatcher contentMatcher) {
+    CompletableFuture<Long> result = new CompletableFuture<>();
+    scheduler.schedule(
+        () -> {
+          try {
+            StoredObject stored = collection(collectionName).get(key);
+            result.complete(evaluate(stored, newerThan, contentMatcher));
+          } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+          }
+        },
+        readLatency.toMillis(),
+        TimeUnit.MILLISECONDS);
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> objectsExist(
+      String collectionName, List<String> keys, Long newerThan, ContentMatcher contentMatcher)
+      throws CTPException {
+    Map<String, Long> found = new HashMap<>();
+    for (String key : keys) {
+      long objectUpdateMillis = objectExists(collectionName, key, newerThan, contentMatcher);
+      if (objectUpdateMillis > 0) {
+        found.put(key, objectUpdateMillis);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public ListenerRegistration listenForObject(
+      String collectionName,
+      String key,
+      Long newerThan,
+      ContentMatcher contentMatcher,
+      Consumer<Long> onFound,
+      Consumer<Exception> onError) {
+    return addWatcher(
+        collectionName,
+        key,
+        stored -> {
+          long objectUpdateMillis = evaluate(stored, newerThan, contentMatcher);
+          if (objectUpdateMillis > 0) {
+            onFound.accept(objectUpdateMillis);
+          }
+        });
+  }
+
+  @Override
+  public void shutdown() {
+    super.shutdown();
+    scheduler.shutdownNow();
+  }
+
+  private ListenerRegistration addWatcher(String collectionName, String key, Watcher watcher) {
+    String watchKey = collectionName + "/" + key;
+    watchers.computeIfAbsent(watchKey, k -> new CopyOnWriteArrayList<>()).add(watcher);
+
+    // As with Firestore, the listener is first told about the current state of the object
+    scheduler.execute(() -> watcher.changed(collection(collectionName).get(key)));
+    return () -> watchers.getOrDefault(watchKey, Collections.emptyList()).remove(watcher);
+  }
+
+  private ConcurrentMap<String, StoredObject> collection(String collectionName) {
+    return collections.computeIfAbsent(collectionName, c -> new ConcurrentHashMap<>());
+  }
+
+  private void afterWriteLatency(Runnable write) {
+    long latency = writeLatency.toMillis();
+    if (latency > 0) {
+      scheduler.schedule(write, latency, TimeUnit.MILLISECONDS);
+    } else {
+      write.run();
+    }
+  }
+
+  private synchronized void store(String collectionName, String key, Map<String, Object> fields) {
+    StoredObject stored =
+        new StoredObject(
+            Collections.unmodifiableMap(fields),
+            lastUpdateTime.updateAndGet(t -> Math.max(t + 1, System.currentTimeMillis())));
+    collection(collectionName).put(key, stored);
+    log.debug("Stored object '" + key + "' in collection '" + collectionName + "'");
+    notifyWatchers(collectionName, key, stored);
+  }
+
+  private synchronized void remove(String collectionName, String key) {
+    if (collection(collectionName).remove(key) != null) {
+      log.debug("Deleted object '" + key + "' from collection '" + collectionName + "'");
+      notifyWatchers(collectionName, key, null);
+    }
+  }
+
+  /** Tell the listeners on an object of its new state, which is null if it has been deleted */
+  private void notifyWatchers(String collectionName, String key, StoredObject stored) {
+    List<Watcher> interested = watchers.get(collectionName + "/" + key);
+    if (interested != null && !interested.isEmpty()) {
+      scheduler.execute(
+          () -> {
+            for (Watcher watcher : interested) {
+              watcher.changed(stored);
+            }
+          });
+    }
+  }
+
+  private static long evaluate(StoredObject stored, Long newerThan, ContentMatcher contentMatcher) {
+    if (stored == null) {
+      return -1;
+    }
+    return FirestoreService.evaluate(
+        stored.updateTime, newerThan, contentMatcher, path -> path.resolve(stored.fields));
+  }
+
+  private static Map<String, Object> copyOf(Map<?, ?> fields) {
+    Map<String, Object> copy = new LinkedHashMap<>();
+    for (Map.Entry<?, ?> entry : fields.entrySet()) {
+      copy.put(String.valueOf(entry.getKey()), copyOfValue(entry.getValue()));
+    }
+    return copy;
+  }
+
+  /** Copy a field value, so that nested maps and lists can't be changed once stored */
+  private static Object copyOfValue(Object value) {
+    if (value instanceof Map) {
+      return Collections.unmodifiableMap(copyOf((Map<?, ?>) value));
+    }
+    if (value instanceof Collection) {
+      List<Object> copy = new ArrayList<>();
+      for (Object element : (Collection<?>) value) {
+        copy.add(copyOfValue(element));
+      }
+      return Collections.unmodifiableList(copy);
+    }
+    return value;
+  }
+
+  /** The state of an object as of a write */
+  private static final class StoredObject {
+    private final Map<String, Object> fields;
+    private final long updateTime;
+
+    StoredObject(Map<String, Object> fields, long updateTime) {
+      this.fields = fields;
+      this.updateTime = updateTime;
+    }
+  }
+
+  private interface Watcher {
+    /** @param stored the new state of the object, or null if it has been deleted */
+    void changed(StoredObject stored);
+  }
+}
@@ -0,0 +1,15 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/**
+ * Thrown by FirestoreService when Firestore rejects a read with RESOURCE_EXHAUSTED, to signal that
+ * the caller should back off before trying again.
+ */
+class ResourceExhaustedException extends CTPException {
+  private static final long serialVersionUID = 1L;
+
+  ResourceExhaustedException(Throwable cause, String message) {
+    super(Fault.SYSTEM_ERROR, cause, message);
+  }
+}
@@ -0,0 +1,129 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies, in the style of HdrHistogram. Values are counted in
+ * buckets which double in width with each power of two, each split into 128 sub-buckets, so any
+ * percentile is reported to within 1% of the true value however widely the latencies vary.
+ * Recording a value is a handful of arithmetic operations and an atomic increment.
+ */
+public class LatencyRecorder {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a latency. Negative values, eg, caused by clock skew between hosts, are recorded as 0.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    counts.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    min.accumulateAndGet(value, Math::min);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  /** @return the number of latencies recorded */
+  public long getCount() {
+    return count.get();
+  }
+
+  /** @return the smallest latency recorded, in nanoseconds, or 0 if none have been */
+  public long getMin() {
+    return count.get() == 0 ? 0 : min.get();
+  }
+
+  /** @return the largest latency recorded, in nanoseconds */
+  public long getMax() {
+    return max.get();
+  }
+
+  /** @return the mean latency, in nanoseconds, or 0 if none have been recorded */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) total.get() / n;
+  }
+
+  /**
+   * Get a percentile of the recorded latencies.
+   *
+   * @param percentile the percentile, eg, 99.9
+   * @return the latency, in nanoseconds, at or below which the given percentage of latencies fall,
+   *     or 0 if none have been recorded
+   */
+  public long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueAt(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /** Forget all recorded latencies */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    min.set(Long.MAX_VALUE);
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d, min=%s, p50=%s, p90=%s, p99=%s, p99.9=%s, max=%s, mean=%s",
+        getCount(),
+        micros(getMin()),
+        micros(getPercentile(50)),
+        micros(getPercentile(90)),
+        micros(getPercentile(99)),
+        micros(getPercentile(99.9)),
+        micros(getMax()),
+        micros((long) getMean()));
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift);
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket - SUB_BUCKET_COUNT;
+  }
+
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  private static String micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+  }
+}
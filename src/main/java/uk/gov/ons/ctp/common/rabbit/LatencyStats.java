@@ -0,0 +1,142 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The publish to consume latency of the messages received from one exchange, along with counts of
+ * any messages that went missing or were delivered more than once. Only messages stamped by a
+ * SimpleMessageSender with latency stamping enabled are counted.
+ */
+public class LatencyStats {
+  private final String exchange;
+  private final LatencyRecorder latency = new LatencyRecorder();
+
+  // Each sender numbers its messages to each routing key independently, so track them separately.
+  // Each queue bound to the exchange receives its own copy of a message, so track them separately
+  // too, keyed by sender, queue and routing key.
+  private final Map<List<String>, SequenceTracker> senders = new ConcurrentHashMap<>();
+
+  LatencyStats(String exchange) {
+    this.exchange = exchange;
+  }
+
+  /**
+   * Record the receipt of a stamped message
+   *
+   * @param latencyNanos the time from the message being sent to it being received
+   * @param senderId the id the sender stamped the message with
+   * @param consumerQueue the queue the message was consumed from
+   * @param routingKey the routing key the message was sent with
+   * @param sequence the sequence number the sender stamped the message with
+   */
+  void record(
+      long latencyNanos, String senderId, String consumerQueue, String routingKey, long sequence) {
+    latency.record(latencyNanos);
+    senders
+        .computeIfAbsent(
+            Arrays.asList(senderId, consumerQueue, routingKey), s -> new SequenceTracker())
+        .record(sequence);
+  }
+
+  /** @return the name of the exchange the messages were received from */
+  public String getExchange() {
+    return exchange;
+  }
+
+  /** @return the distribution of publish to consume latencies */
+  public LatencyRecorder getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return the number of messages missing from the sequences received so far, ie, sent between
+   *     the earliest and latest messages received but never received themselves
+   */
+  public long getMissing() {
+    long missing = 0;
+    for (SequenceTracker tracker : senders.values()) {
+      missing += tracker.getMissing();
+    }
+    return missing;
+  }
+
+  /** @return the number of messages received more than once */
+  public long getDuplicates() {
+    long duplicates = 0;
+    for (SequenceTracker tracker : senders.values()) {
+      duplicates += tracker.getDuplicates();
+    }
+    return duplicates;
+  }
+
+  @Override
+  public String toString() {
+    return "exchange '"
+        + exchange
+        + "': "
+        + latency
+        + ", missing="
+        + getMissing()
+        + ", duplicates="
+        + getDuplicates();
+  }
+
+  /**
+   * Tracks which of one sender's sequence numbers have been received. Counting starts from the
+   * lowest sequence number received, so a listener that starts part way through a stream, or
+   * whose statistics are reset after a warm-up, does not count the messages before it as missing.
+   */
+  private static final class SequenceTracker {
+    // Bit i is set once sequence number lowest + i has been received
+    private BitSet seen = new BitSet();
+    private long lowest = -1;
+    private long highest;
+    private long duplicates;
+
+    synchronized void record(long sequence) {
+      if (sequence < 0) {
+        return;
+      }
+      if (lowest < 0) {
+        lowest = sequence;
+      } else if (sequence < lowest) {
+        // An earlier message arrived late, so move the start of the range back to it
+        if (highest - sequence > Integer.MAX_VALUE) {
+          return;
+        }
+        BitSet shifted = new BitSet();
+        int shift = (int) (lowest - sequence);
+        for (int i = seen.nextSetBit(0); i >= 0; i = seen.nextSetBit(i + 1)) {
+          shifted.set(i + shift);
+        }
+        seen = shifted;
+        lowest = sequence;
+      }
+      if (sequence - lowest > Integer.MAX_VALUE) {
+        return;
+      }
+      int index = (int) (sequence - lowest);
+      if (seen.get(index)) {
+        duplicates++;
+      } else {
+        seen.set(index);
+      }
+      highest = Math.max(highest, sequence);
+    }
+
+    synchronized long getMissing() {
+      if (lowest < 0) {
+        return 0;
+      }
+      return (highest - lowest + 1) - seen.cardinality();
+    }
+
+    synchronized long getDuplicates() {
+      return duplicates;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.slf4j.event.Level;
+import uk.gov.ons.ctp.common.FixtureHelper;
+
+/**
+ * Settings for the containers created by a SimpleMessageListener. Any settings not supplied take
+ * their defaults, which suit functional tests that receive a handful of messages. Load tests
+ * should raise the concurrency and prefetch count, and lower the log level.
+ */
+@Builder
+@Getter
+@ToString
+public class ListenerConfig {
+  static final int DEFAULT_CONCURRENT_CONSUMERS = 1;
+  static final int DEFAULT_PREFETCH_COUNT = 250;
+  static final int DEFAULT_BATCH_SIZE = 1;
+  static final int DEFAULT_QUEUE_CAPACITY = 100;
+  static final int DEFAULT_RETAINED_MESSAGES = 0;
+
+  // The number of consumer threads of each container. Defaults to 1. All queues share one
+  // container, and so its consumers, except under the BLOCK overflow policy, when each queue has a
+  // container of its own. Note that with more than one consumer messages may be posted out of
+  // order.
+  private Integer concurrentConsumers;
+
+  // The number of unacknowledged messages the broker sends to each consumer. Defaults to 250.
+  private Integer prefetchCount;
+
+  // The number of messages a consumer receives before acknowledging them all at once. Defaults to
+  // 1. Larger batches save round trips to the broker, at the cost of redelivering the whole batch
+  // should the listener fail. Must not exceed the prefetch count.
+  private Integer batchSize;
+
+  // The level at which each received message is logged. Defaults to INFO. Logging every message
+  // soon limits throughput, so load tests should use DEBUG or TRACE.
+  private Level logLevel;
+
+  // The character set used to decode message bodies. Defaults to UTF-8.
+  private Charset charset;
+
+  // The number of received messages held in memory for the test to take, under any overflow
+  // policy other than UNBOUNDED. Defaults to 100.
+  private Integer queueCapacity;
+
+  // What to do with a message that arrives when the queue is full. Defaults to UNBOUNDED, so the
+  // queue never fills, as it never did before queues had a capacity.
+  private OverflowPolicy overflowPolicy;
+
+  // The directory that SPILL_TO_DISK writes to. Defaults to the system temporary directory.
+  private Path spillDirectory;
+
+  // The number of the most recent JSON messages retained for the awaitMessage methods to search,
+  // eg, 10000. Defaults to 0, which retains none, so received messages aren't parsed unless a test
+  // is going to await them.
+  private Integer retainedMessages;
+
+  // The dotted JSON paths that retained messages are indexed by, so that awaiting a message by
+  // the value at one of those paths is a lookup rather than a scan, eg,
+  // 'payload.collectionCase.id'.
+  private List<String> indexedPaths;
+
+  // The mapper used to parse JSON messages and to deserialise messages into typed objects, eg, one
+  // with the modules and date formats configured by the services under test. Defaults to the
+  // mapper FixtureHelper loads fixtures with at the time the listener is created.
+  private ObjectMapper objectMapper;
+
+  int getEffectiveConcurrentConsumers() {
+    return concurrentConsumers == null ? DEFAULT_CONCURRENT_CONSUMERS : concurrentConsumers;
+  }
+
+  int getEffectivePrefetchCount() {
+    return prefetchCount == null ? DEFAULT_PREFETCH_COUNT : prefetchCount;
+  }
+
+  int getEffectiveBatchSize() {
+    return batchSize == null ? DEFAULT_BATCH_SIZE : batchSize;
+  }
+
+  Level getEffectiveLogLevel() {
+    return logLevel == null ? Level.INFO : logLevel;
+  }
+
+  Charset getEffectiveCharset() {
+    return charset == null ? StandardCharsets.UTF_8 : charset;
+  }
+
+  int getEffectiveQueueCapacity() {
+    return queueCapacity == null ? DEFAULT_QUEUE_CAPACITY : queueCapacity;
+  }
+
+  OverflowPolicy getEffectiveOverflowPolicy() {
+    return overflowPolicy == null ? OverflowPolicy.UNBOUNDED : overflowPolicy;
+  }
+
+  Path getEffectiveSpillDirectory() {
+    return spillDirectory == null
+        ? Paths.get(System.getProperty("java.io.tmpdir"))
+        : spillDirectory;
+  }
+
+  int getEffectiveRetainedMessages() {
+    return retainedMessages == null ? DEFAULT_RETAINED_MESSAGES : retainedMessages;
+  }
+
+  List<String> getEffectiveIndexedPaths() {
+    return indexedPaths == null ? Collections.emptyList() : indexedPaths;
+  }
+
+  ObjectMapper getEffectiveObjectMapper() {
+    return objectMapper == null ? FixtureHelper.getObjectMapper() : objectMapper;
+  }
+}
@@ -0,0 +1,68 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import java.time.Duration;
+import lombok.Getter;
+
+/** The results of a run of a RabbitLoadGenerator */
+@Getter
+public class LoadReport {
+  // Whether the run was open model, ie, at a target rate, or closed model, ie, flat out
+  private final boolean openModel;
+
+  // The number of publisher threads
+  private final int publishers;
+
+  // The target number of messages per second of an open model run, otherwise null
+  private final Double targetRate;
+
+  // The number of messages sent successfully
+  private final long sent;
+
+  // The number of messages that failed to send, including those whose payload couldn't be built
+  private final long failed;
+
+  // The time taken by the run
+  private final Duration elapsed;
+
+  // The time taken to publish each message. For an open model run this is measured from when the
+  // message should have been sent, so time spent queued behind slow publishes is included.
+  private final LatencyRecorder latency;
+
+  LoadReport(
+      boolean openModel,
+      int publishers,
+      Double targetRate,
+      long sent,
+      long failed,
+      Duration elapsed,
+      LatencyRecorder latency) {
+    this.openModel = openModel;
+    this.publishers = publishers;
+    this.targetRate = targetRate;
+    this.sent = sent;
+    this.failed = failed;
+    this.elapsed = elapsed;
+    this.latency = latency;
+  }
+
+  /** @return the achieved number of messages sent per second */
+  public double getThroughput() {
+    double seconds = elapsed.toNanos() / 1e9;
+    return seconds == 0 ? 0 : sent / seconds;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s model, %d publishers%s: sent=%d, failed=%d, elapsed=%dms, throughput=%.1f/s,"
+            + " latency %s",
+        openModel ? "Open" : "Closed",
+        publishers,
+        openModel ? String.format(" at %.1f/s", targetRate) : "",
+        sent,
+        failed,
+        elapsed.toMillis(),
+        getThroughput(),
+        latency);
+  }
+}
@@ -0,0 +1,242 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retains the most recent messages received by a listener, parsed once, so that tests can wait
+ * for the messages they are interested in without draining and re-parsing everything else.
+ *
+ * <p>Messages are also indexed by the values found at a number of JSON paths, eg,
+ * 'payload.collectionCase.id'. Finding, or waiting for, a message by one of those values is a hash
+ * lookup rather than a scan.
+ */
+@Slf4j
+class MessageIndex {
+  private final int capacity;
+  private final Map<String, JsonPointer> pointers = new LinkedHashMap<>();
+
+  private final ArrayDeque<JsonNode> retained = new ArrayDeque<>();
+  // The indexed values of each retained message, in the order of the paths, taken when it was
+  // added. Tests may change the messages they are handed, so the values are not looked up again.
+  private final ArrayDeque<String[]> retainedValues = new ArrayDeque<>();
+  private final Map<String, Map<String, ArrayDeque<JsonNode>>> index = new HashMap<>();
+
+  private final List<Waiter> waiters = new ArrayList<>();
+  private final Map<String, Map<String, List<Waiter>>> keyedWaiters = new HashMap<>();
+
+  /**
+   * Constructor for a MessageIndex
+   *
+   * @param capacity the number of messages to retain
+   * @param indexedPaths the dotted JSON paths to index messages by
+   */
+  MessageIndex(int capacity, Collection<String> indexedPaths) {
+    this.capacity = capacity;
+    for (String path : indexedPaths) {
+      pointers.put(path, toPointer(path));
+      index.put(path, new HashMap<>());
+      keyedWaiters.put(path, new HashMap<>());
+    }
+  }
+
+  /**
+   * Add a received message, signalling any tests waiting for it
+   *
+   * @param message the parsed message
+   */
+  synchronized void add(JsonNode message) {
+    if (retained.size() == capacity) {
+      retained.pollFirst();
+      evict(retainedValues.pollFirst());
+    }
+    String[] values = new String[pointers.size()];
+    retained.addLast(message);
+    retainedValues.addLast(values);
+
+    int i = 0;
+    for (Map.Entry<String, JsonPointer> entry : pointers.entrySet()) {
+      String value = valueAt(message, entry.getValue());
+      values[i++] = value;
+      if (value != null) {
+        index.get(entry.getKey()).computeIfAbsent(value, v -> new ArrayDeque<>()).addLast(message);
+        List<Waiter> interested = keyedWaiters.get(entry.getKey()).get(value);
+        if (interested != null) {
+          for (Waiter waiter : interested) {
+            waiter.offer(message);
+          }
+        }
+      }
+    }
+    for (Waiter waiter : waiters) {
+      waiter.offer(message);
+    }
+  }
+
+  /**
+   * Wait for a number of messages matching a predicate, including any already received
+   *
+   * @param count the number of messages to wait for
+   * @param predicate the test a message must pass
+   * @param timeout how long to wait
+   * @return the first 'count' matching messages, or fewer if the timeout was reached
+   */
+  List<JsonNode> await(int count, Predicate<JsonNode> predicate, Duration timeout) {
+    Waiter waiter = new Waiter(count, predicate);
+    synchronized (this) {
+      if (!waiter.offerAll(retained)) {
+        waiters.add(waiter);
+      }
+    }
+    return waiter.await(timeout, () -> waiters.remove(waiter));
+  }
+
+  /**
+   * Wait for a number of messages holding a value at an indexed path, including any already
+   * received. If the path is not indexed then messages are tested one by one instead.
+   *
+   * @param count the number of messages to wait for
+   * @param path the dotted JSON path, eg, 'payload.collectionCase.id'
+   * @param value the value the message must hold at the path
+   * @param timeout how long to wait
+   * @return the first 'count' matching messages, or fewer if the timeout was reached
+   */
+  List<JsonNode> await(int count, String path, String value, Duration timeout) {
+    if (!pointers.containsKey(path)) {
+      JsonPointer pointer = toPointer(path);
+      return await(count, message -> value.equals(valueAt(message, pointer)), timeout);
+    }
+
+    Waiter waiter = new Waiter(count, message -> true);
+    List<Waiter> interested;
+    synchronized (this) {
+      ArrayDeque<JsonNode> found = index.get(path).get(value);
+      if (found != null && waiter.offerAll(found)) {
+        return Collections.unmodifiableList(waiter.matches);
+      }
+      interested = keyedWaiters.get(path).computeIfAbsent(value, v -> new ArrayList<>());
+      interested.add(waiter);
+    }
+    return waiter.await(
+        timeout,
+        () -> {
+          interested.remove(waiter);
+          if (interested.isEmpty()) {
+            keyedWaiters.get(path).remove(value);
+          }
+        });
+  }
+
+  /** Forget all received messages */
+  synchronized void clear() {
+    retained.clear();
+    retainedValues.clear();
+    for (Map<String, ArrayDeque<JsonNode>> values : index.values()) {
+      values.clear();
+    }
+  }
+
+  /**
+   * Remove the oldest message from the index
+   *
+   * @param messageValues the values the message held at each indexed path when it was added
+   */
+  private void evict(String[] messageValues) {
+    int i = 0;
+    for (String path : pointers.keySet()) {
+      String value = messageValues[i++];
+      if (value != null) {
+        Map<String, ArrayDeque<JsonNode>> values = index.get(path);
+        ArrayDeque<JsonNode> found = values.get(value);
+        // Messages are evicted oldest first, so this message is at the head of its entry
+        found.pollFirst();
+        if (found.isEmpty()) {
+          values.remove(value);
+        }
+      }
+    }
+  }
+
+  private static JsonPointer toPointer(String path) {
+    return JsonPointer.compile("/" + path.replace('.', '/'));
+  }
+
+  private static String valueAt(JsonNode message, JsonPointer pointer) {
+    JsonNode node = message.at(pointer);
+    return node.isMissingNode() || node.isNull() ? null : node.asText();
+  }
+
+  /** A test waiting for messages. Guarded by the lock of the owning MessageIndex. */
+  private final class Waiter {
+    private final int count;
+    private final Predicate<JsonNode> predicate;
+    private final List<JsonNode> matches = new ArrayList<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Waiter(int count, Predicate<JsonNode> predicate) {
+      this.count = count;
+      this.predicate = predicate;
+    }
+
+    /** @return true once enough messages have been found */
+    boolean offerAll(Collection<JsonNode> messages) {
+      for (JsonNode message : messages) {
+        if (offer(message)) {
+          return true;
+        }
+      }
+      return matches.size() >= count;
+    }
+
+    /** @return true once enough messages have been found */
+    boolean offer(JsonNode message) {
+      if (matches.size() >= count) {
+        return true;
+      }
+      boolean matched;
+      try {
+        matched = predicate.test(message);
+      } catch (RuntimeException e) {
+        log.debug("Message predicate failed: {}", e.getMessage());
+        matched = false;
+      }
+      if (matched) {
+        matches.add(message);
+        if (matches.size() >= count) {
+          done.complete(null);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    List<JsonNode> await(Duration timeout, Runnable unregister) {
+      try {
+        done.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException | ExecutionException e) {
+        // Return whatever has been found
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (MessageIndex.this) {
+        unregister.run();
+        return Collections.unmodifiableList(new ArrayList<>(matches));
+      }
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+/** What a SimpleMessageListener does with a message that arrives when its queue is full */
+public enum OverflowPolicy {
+  // Hold up the consumer until the test takes a message from the queue. Once the consumer's
+  // prefetched messages are used up the broker stops delivering, so no messages are lost. Each
+  // queue has a consumer of its own, so one that is not being drained holds up no other.
+  BLOCK,
+  // Discard the oldest message in the queue to make room. Suits tests that only care about the
+  // most recent messages.
+  DROP_OLDEST,
+  // Keep the queue's capacity in memory, and write any further messages to a temporary file
+  // until the test catches up. No messages are lost and the consumer is never held up.
+  SPILL_TO_DISK,
+  // Ignore the capacity and use an unbounded, lock-free queue. Fastest, but memory is the limit.
+  UNBOUNDED
+}
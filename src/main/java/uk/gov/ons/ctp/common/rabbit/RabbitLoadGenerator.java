@@ -0,0 +1,247 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import uk.gov.ons.ctp.common.FixtureGenerator;
+import uk.gov.ons.ctp.common.FixtureHelper;
+
+/**
+ * Drives a SimpleMessageSender with load, to soak test event consumers from ordinary JUnit tests.
+ *
+ * <p>If a 'ratePerSecond' is given then the run is open model: message N is due to be sent N /
+ * rate seconds after the start, whether or not earlier messages have been sent yet. Latency is
+ * measured from when each message was due, so a publish that stalls is charged for the delay it
+ * causes to the messages queued behind it, rather than hiding it, ie, the measurement does not
+ * suffer from coordinated omission. Use enough publishers to keep up with the rate.
+ *
+ * <p>Otherwise the run is closed model: each publisher sends its next message as soon as the
+ * previous one has been sent, giving the maximum throughput for that number of publishers.
+ *
+ * <p>Each publisher is a thread of its own, and so publishes over a channel of its own from the
+ * sender's connection. The run ends once 'messageCount' messages have been sent or 'duration' has
+ * passed, whichever comes first. A message whose payload can't be built, or whose send throws, is
+ * counted as failed in the report and the run carries on. For example:
+ *
+ * <pre>
+ * LoadReport report =
+ *     RabbitLoadGenerator.builder()
+ *         .sender(sender)
+ *         .exchange("events")
+ *         .routingKey("event.case.update")
+ *         .payloads(RabbitLoadGenerator.payloadsFrom(fixtureGenerator))
+ *         .ratePerSecond(500.0)
+ *         .publishers(4)
+ *         .duration(Duration.ofMinutes(5))
+ *         .build()
+ *         .run();
+ * </pre>
+ */
+@Slf4j
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RabbitLoadGenerator {
+  // The sender to publish with
+  @NonNull private SimpleMessageSender sender;
+
+  // The name of the exchange to publish to
+  @NonNull private String exchange;
+
+  // The routing key to publish with. Defaults to the empty routing key.
+  private String routingKey;
+
+  // Supplies the body of message N. See the payloadsFrom methods.
+  @NonNull private LongFunction<String> payloads;
+
+  // The number of messages to send per second. If not given then messages are sent flat out.
+  private Double ratePerSecond;
+
+  // The number of publisher threads. Defaults to 1.
+  private Integer publishers;
+
+  // The number of messages to send. At least one of 'messageCount' and 'duration' must be given.
+  private Long messageCount;
+
+  // How long to send messages for.
+  private Duration duration;
+
+  /**
+   * Supply payloads by cycling through a list of fixtures. Fixtures that aren't already Strings
+   * are serialised to JSON up front, so the cost isn't charged to the run.
+   *
+   * @param fixtures the fixtures, eg, as loaded by FixtureHelper
+   * @return the payload supplier
+   */
+  public static LongFunction<String> payloadsFrom(List<?> fixtures) {
+    if (fixtures.isEmpty()) {
+      throw new IllegalArgumentException("At least one fixture is required");
+    }
+    List<String> bodies = new ArrayList<>(fixtures.size());
+    for (Object fixture : fixtures) {
+      try {
+        bodies.add(
+            fixture instanceof String
+                ? (String) fixture
+                : FixtureHelper.getObjectMapper().writeValueAsString(fixture));
+      } catch (JsonProcessingException e) {
+        throw new IllegalArgumentException("Failed to serialise fixture", e);
+      }
+    }
+    return index -> bodies.get((int) (index % bodies.size()));
+  }
+
+  /**
+   * Supply a distinct generated payload for every message.
+   *
+   * @param generator generates instances of a template fixture
+   * @return the payload supplier
+   */
+  public static LongFunction<String> payloadsFrom(FixtureGenerator generator) {
+    return index -> generator.generate(index, JsonNode.class).toString();
+  }
+
+  /**
+   * Run the load, blocking until it is complete.
+   *
+   * @return the report of the run
+   * @throws InterruptedException if interrupted whilst waiting for the run to complete. The
+   *     publishers are stopped.
+   */
+  public LoadReport run() throws InterruptedException {
+    if (messageCount == null && duration == null) {
+      throw new IllegalArgumentException("Either 'messageCount' or 'duration' must be supplied");
+    }
+    if (ratePerSecond != null && !(ratePerSecond > 0)) {
+      throw new IllegalArgumentException("Rate must be greater than 0");
+    }
+    int threads = publishers == null ? 1 : publishers;
+    if (threads < 1) {
+      throw new IllegalArgumentException("There must be at least one publisher");
+    }
+
+    Run run = new Run();
+    log.info(
+        "Starting {} model load on exchange '{}' with {} publishers",
+        run.openModel ? "open" : "closed",
+        exchange,
+        threads);
+
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            threads,
+            r -> {
+              Thread thread = new Thread(r, "rabbit-load-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    for (int i = 0; i < threads; i++) {
+      pool.execute(run::publish);
+    }
+    pool.shutdown();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+        log.debug("Sent {} messages so far", run.sent.get());
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      throw e;
+    }
+
+    LoadReport report =
+        new LoadReport(
+            run.openModel,
+            threads,
+            ratePerSecond,
+            run.sent.get(),
+            run.failed.get(),
+            Duration.ofNanos(System.nanoTime() - run.startNanos),
+            run.latency);
+    log.info("Load complete. {}", report);
+    return report;
+  }
+
+  /** The state shared by the publishers of a single run */
+  private final class Run {
+    private final boolean openModel = ratePerSecond != null;
+    private final double intervalNanos = openModel ? 1e9 / ratePerSecond : 0;
+    private final long limit = messageCount == null ? Long.MAX_VALUE : messageCount;
+    private final String key = routingKey == null ? "" : routingKey;
+    private final long startNanos = System.nanoTime();
+    private final long endNanos =
+        duration == null ? Long.MAX_VALUE : startNanos + duration.toNanos();
+
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyRecorder latency = new LatencyRecorder();
+
+    void publish() {
+      while (!Thread.currentThread().isInterrupted()) {
+        long index = next.getAndIncrement();
+        if (index >= limit) {
+          return;
+        }
+        // Build the payload before waiting, so that its cost isn't charged to the broker
+        String payload;
+        try {
+          payload = payloads.apply(index);
+        } catch (RuntimeException e) {
+          // The message still takes its slot in the schedule, so later messages are unaffected
+          fail("Failed to build message " + index, e);
+          continue;
+        }
+
+        long intendedNanos;
+        if (openModel) {
+          intendedNanos = startNanos + (long) (index * intervalNanos);
+          if (intendedNanos - endNanos >= 0) {
+            return;
+          }
+          long waitNanos;
+          while ((waitNanos = intendedNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+            if (Thread.currentThread().isInterrupted()) {
+              return;
+            }
+          }
+        } else {
+          intendedNanos = System.nanoTime();
+          if (intendedNanos - endNanos >= 0) {
+            return;
+          }
+        }
+
+        try {
+          sender.sendMessage(exchange, key, payload);
+          sent.incrementAndGet();
+        } catch (RuntimeException e) {
+          fail("Failed to send message " + index, e);
+        }
+        latency.record(System.nanoTime() - intendedNanos);
+      }
+    }
+
+    /** Count a message that could not be sent, logging only the first so as not to flood the log */
+    private void fail(String message, RuntimeException e) {
+      if (failed.incrementAndGet() == 1) {
+        log.warn(message + ", further failures are only counted", e);
+      }
+    }
+  }
+}
@@ -1,11 +1,17 @@
 package uk.gov.ons.ctp.common.rabbit;
 
+import java.time.Instant;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 
 class SimpleMessageBase {
+  // Headers stamped on messages by a SimpleMessageSender to measure publish to consume latency
+  static final String SEND_TIME_HEADER = "x-ctp-send-time-nanos";
+  static final String SEQUENCE_HEADER = "x-ctp-sequence";
+  static final String SENDER_HEADER = "x-ctp-sender";
+
   /** The type of the exchange to listen for messages on */
   public enum ExchangeType {
     Direct,
@@ -48,4 +54,24 @@ class SimpleMessageBase {
   void setRabbitAdmin(RabbitAdmin rabbitAdmin) {
     this.rabbitAdmin = rabbitAdmin;
   }
+
+  /**
+   * This setter is solely for use by unit tests
+   *
+   * @param connectionFactory a ConnectionFactory
+   */
+  void setConnectionFactory(ConnectionFactory connectionFactory) {
+    this.connectionFactory = connectionFactory;
+  }
+
+  /**
+   * Get the wall clock time in nanoseconds, so that times taken on different hosts can be
+   * compared. The precision depends on the platform clock, and is usually a microsecond or better.
+   *
+   * @return the nanoseconds since the epoch
+   */
+  static long epochNanos() {
+    Instant now = Instant.now();
+    return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+  }
 }
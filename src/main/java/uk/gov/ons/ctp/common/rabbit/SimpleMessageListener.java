@@ -1,26 +1,83 @@
 package uk.gov.ons.ctp.common.rabbit;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageListener;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 
-/** A class to encapsulate listening for Rabbit messages for use by unit and/or integration tests */
+/**
+ * A class to encapsulate listening for Rabbit messages for use by unit and/or integration tests
+ *
+ * <p>Each call to listen binds a new queue, but all queues share the listener's single connection
+ * and container, which routes each message to the right transfer queue by the name of the queue
+ * it was consumed from. A suite listening on many exchanges should therefore use one listener for
+ * all of them, rather than one listener per exchange. The exception is the BLOCK overflow policy,
+ * under which a full queue holds up the consumer posting to it. Each queue then has a container of
+ * its own, so that a queue the test isn't draining doesn't hold up the others.
+ *
+ * <p>Adding a queue to the running shared container restarts its consumers. Messages the broker had
+ * already sent to them but which had not been acknowledged, up to the prefetch count per consumer,
+ * are requeued and redelivered after those that follow them. Those that had been posted but were
+ * waiting on the rest of a batch to be acknowledged are posted again. Tests that care about order
+ * or exactly-once delivery should therefore make all of their listen calls before sending any
+ * messages.
+ */
 @Slf4j
 public class SimpleMessageListener extends SimpleMessageBase {
-
+  // Consumes from every queue, unless the overflow policy is BLOCK
   private SimpleMessageListenerContainer container;
 
+  // Each consumes from a single queue, under the BLOCK overflow policy. Guarded by this.
+  private final List<SimpleMessageListenerContainer> blockingContainers = new ArrayList<>();
+
+  // Publish to consume latency of stamped messages, keyed by exchange name
+  private final Map<String, LatencyStats> latencyStats = new ConcurrentHashMap<>();
+
+  // Where to post messages consumed from each queue, keyed by queue name
+  private final Map<String, Consumer<Message>> routes = new ConcurrentHashMap<>();
+
+  private final ListenerConfig config;
+  private final ObjectMapper objectMapper;
+  private final Charset charset;
+  private final Level logLevel;
+
+  // Queues that hold resources, such as spill files, to release on close
+  private final List<SpillingBlockingQueue<?>> spillingQueues = new CopyOnWriteArrayList<>();
+  private final AtomicLong dropped = new AtomicLong();
+
+  // Retains received messages for the awaitMessage methods, or null if disabled
+  private final MessageIndex messageIndex;
+
   /**
    * Constructor for a SimpleMessageListener - expects the rabbit connection details
    *
@@ -30,7 +87,46 @@ public class SimpleMessageListener extends SimpleMessageBase {
    * @param password the rabbit password to connect with
    */
   public SimpleMessageListener(String host, int port, String username, String password) {
+    this(host, port, username, password, ListenerConfig.builder().build());
+  }
+
+  /**
+   * Constructor for a SimpleMessageListener with non-default container settings, eg, for load
+   * tests that need to drain messages faster than a single consumer can
+   *
+   * @param host the rabbit host
+   * @param port the port the rabbit host is listening on
+   * @param username the rabbit user to connect with
+   * @param password the rabbit password to connect with
+   * @param config the settings for the containers created by the listener
+   * @throws IllegalArgumentException if the settings are inconsistent, eg, a batch size larger
+   *     than the prefetch count
+   */
+  public SimpleMessageListener(
+      String host, int port, String username, String password, ListenerConfig config) {
     super(host, port, username, password);
+    int prefetchCount = config.getEffectivePrefetchCount();
+    int batchSize = config.getEffectiveBatchSize();
+    if (config.getEffectiveConcurrentConsumers() < 1 || prefetchCount < 1 || batchSize < 1) {
+      throw new IllegalArgumentException(
+          "Concurrent consumers, prefetch count and batch size must all be at least 1");
+    }
+    if (batchSize > prefetchCount) {
+      throw new IllegalArgumentException(
+          "Batch size " + batchSize + " must not exceed prefetch count " + prefetchCount);
+    }
+    if (config.getEffectiveQueueCapacity() < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1");
+    }
+    this.config = config;
+    this.objectMapper = config.getEffectiveObjectMapper();
+    this.charset = config.getEffectiveCharset();
+    this.logLevel = config.getEffectiveLogLevel();
+    int retainedMessages = config.getEffectiveRetainedMessages();
+    this.messageIndex =
+        retainedMessages > 0
+            ? new MessageIndex(retainedMessages, config.getEffectiveIndexedPaths())
+            : null;
   }
 
   /**
@@ -53,6 +149,155 @@ public class SimpleMessageListener extends SimpleMessageBase {
    * @return a blocking queue where incoming messages will be posted
    */
   public BlockingQueue<String> listen(ExchangeType type, String exchangeName, String routingKey) {
+    return listen(
+        type,
+        exchangeName,
+        routingKey,
+        message -> {
+          String msgStr = new String(message.getBody(), charset);
+
+          logMessage("onMessage: {}", msgStr);
+
+          index(msgStr);
+          return msgStr;
+        },
+        new SpillingBlockingQueue.Codec<String>() {
+          @Override
+          public byte[] encode(String element) {
+            return element.getBytes(charset);
+          }
+
+          @Override
+          public String decode(byte[] bytes) {
+            return new String(bytes, charset);
+          }
+        });
+  }
+
+  /**
+   * Listen to all messages on an exchange, receiving their raw bodies. The bodies are handed over
+   * as they arrive from the broker, without being decoded or copied, which suits tests that only
+   * forward, hash or count messages. The bodies are only parsed if the listener is configured to
+   * retain messages for the awaitMessage methods, and then only those that look like JSON.
+   *
+   * @param type the type of the exchange
+   * @param exchangeName the name of the exchange
+   * @return a blocking queue where the bodies of incoming messages will be posted
+   */
+  public BlockingQueue<byte[]> listenBytes(ExchangeType type, String exchangeName) {
+    return listenBytes(type, exchangeName, null);
+  }
+
+  /**
+   * Listen to messages on a particular routing key on an exchange, receiving their raw bodies
+   *
+   * @param type the type of the exchange
+   * @param exchangeName the name of the exchange
+   * @param routingKey the routing key to listen for messages on
+   * @return a blocking queue where the bodies of incoming messages will be posted
+   */
+  public BlockingQueue<byte[]> listenBytes(
+      ExchangeType type, String exchangeName, String routingKey) {
+    return listen(
+        type,
+        exchangeName,
+        routingKey,
+        message -> {
+          byte[] body = message.getBody();
+
+          logMessage("onMessage: {} bytes", body.length);
+
+          index(body);
+          return body;
+        },
+        new SpillingBlockingQueue.Codec<byte[]>() {
+          @Override
+          public byte[] encode(byte[] element) {
+            return element;
+          }
+
+          @Override
+          public byte[] decode(byte[] bytes) {
+            return bytes;
+          }
+        });
+  }
+
+  /**
+   * Listen to messages on a particular routing key on an exchange, deserialising their JSON
+   * bodies directly into objects of a given class. A message which can't be deserialised is
+   * rejected, and not requeued, so it doesn't hold up those behind it.
+   *
+   * @param type the type of the exchange
+   * @param exchangeName the name of the exchange
+   * @param routingKey the routing key to listen for messages on, or null if not required
+   * @param clazz the class to deserialise messages into, eg, a Jackson annotated event DTO
+   * @param <T> the type of the messages
+   * @return a blocking queue where incoming messages will be posted
+   */
+  public <T> BlockingQueue<T> listen(
+      ExchangeType type, String exchangeName, String routingKey, Class<T> clazz) {
+    return listen(
+        type,
+        exchangeName,
+        routingKey,
+        message -> {
+          byte[] body = message.getBody();
+
+          logMessage("onMessage: {} bytes", body.length);
+
+          try {
+            // When messages are retained for awaiting, parse them only the once
+            if (messageIndex != null) {
+              JsonNode tree = objectMapper.readTree(body);
+              messageIndex.add(tree);
+              return objectMapper.treeToValue(tree, clazz);
+            }
+            return objectMapper.readValue(body, clazz);
+          } catch (IOException e) {
+            log.warn(
+                "Rejecting message which is not a {}: {}", clazz.getSimpleName(), e.getMessage());
+            throw new AmqpRejectAndDontRequeueException("Failed to deserialise message", e);
+          }
+        },
+        new SpillingBlockingQueue.Codec<T>() {
+          @Override
+          public byte[] encode(T element) {
+            try {
+              return objectMapper.writeValueAsBytes(element);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+
+          @Override
+          public T decode(byte[] bytes) {
+            try {
+              return objectMapper.readValue(bytes, clazz);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+        });
+  }
+
+  /**
+   * Bind a new queue to an exchange and start consuming from it
+   *
+   * @param type the type of the exchange
+   * @param exchangeName the name of the exchange
+   * @param routingKey the routing key to listen for messages on, or null if not required
+   * @param converter converts each received message into the form posted to the queue
+   * @param codec converts messages to bytes, should they need to be spilled to disk
+   * @param <T> the type of the messages
+   * @return a blocking queue where incoming messages will be posted
+   */
+  private <T> BlockingQueue<T> listen(
+      ExchangeType type,
+      String exchangeName,
+      String routingKey,
+      Function<Message, T> converter,
+      SpillingBlockingQueue.Codec<T> codec) {
     RabbitAdmin rabbitAdmin = getRabbitAdmin();
     String queueName = getQueueName(exchangeName);
     Queue queue = new Queue(queueName, false, true, true);
@@ -60,34 +305,358 @@ public class SimpleMessageListener extends SimpleMessageBase {
 
     declareExchangeAndBind(rabbitAdmin, queue, type, exchangeName, routingKey);
 
-    final BlockingQueue<String> transfer = new ArrayBlockingQueue<>(100);
+    BlockingQueue<T> transfer = addRoute(queueName, converter, codec);
+
+    synchronized (this) {
+      if (config.getEffectiveOverflowPolicy() == OverflowPolicy.BLOCK) {
+        // A full transfer queue blocks the consumer posting to it, which must not hold up the
+        // consumers of other queues
+        blockingContainers.add(startContainer(queueName));
+      } else if (this.container == null) {
+        this.container = startContainer(queueName);
+      } else {
+        // The running container starts consuming from the new queue too, restarting its
+        // consumers to do so, which redelivers any messages they hold unacknowledged
+        this.container.addQueueNames(queueName);
+      }
+    }
+
+    return transfer;
+  }
 
+  /**
+   * Create and start a container consuming from a queue
+   *
+   * @param queueName the name of the queue
+   * @return the running container
+   */
+  private SimpleMessageListenerContainer startContainer(String queueName) {
     MessageListener messageListener =
         new MessageListener() {
           @Override
           public void onMessage(Message message) {
-            String msgStr = new String(message.getBody());
-
-            log.info("onMessage: {}", msgStr);
-
-            transfer.add(msgStr);
+            dispatch(message);
           }
         };
 
     ConnectionFactory connectionFactory = getConnectionFactory();
-    this.container = new SimpleMessageListenerContainer(connectionFactory);
+    SimpleMessageListenerContainer listenerContainer =
+        new SimpleMessageListenerContainer(connectionFactory);
 
-    this.container.setMessageListener(messageListener);
-    this.container.setQueueNames(queueName);
-    this.container.start();
+    listenerContainer.setMessageListener(messageListener);
+    listenerContainer.setQueueNames(queueName);
+    listenerContainer.setConcurrentConsumers(config.getEffectiveConcurrentConsumers());
+    listenerContainer.setPrefetchCount(config.getEffectivePrefetchCount());
+    setBatchSize(listenerContainer, config.getEffectiveBatchSize());
+    listenerContainer.start();
+    return listenerContainer;
+  }
 
+  /**
+   * Create the transfer queue for messages consumed from a queue, and route them to it
+   *
+   * @param queueName the name of the queue the messages are consumed from
+   * @param converter converts each received message into the form posted to the transfer queue
+   * @param codec converts messages to bytes, should they need to be spilled to disk
+   * @param <T> the type of the messages
+   * @return the transfer queue
+   */
+  <T> BlockingQueue<T> addRoute(
+      String queueName, Function<Message, T> converter, SpillingBlockingQueue.Codec<T> codec) {
+    BlockingQueue<T> transfer = createTransferQueue(codec);
+    routes.put(queueName, message -> post(transfer, converter.apply(message)));
     return transfer;
   }
 
+  /**
+   * Set the number of messages a container's consumers receive before acknowledging them. Spring
+   * AMQP 2.2 renamed setTxSize to setBatchSize and deprecated the old name, so this calls
+   * whichever the version on the classpath has, without a deprecation warning on either.
+   *
+   * @param container the container
+   * @param batchSize the number of messages per acknowledgement
+   */
+  private static void setBatchSize(SimpleMessageListenerContainer container, int batchSize) {
+    for (String setter : new String[] {"setBatchSize", "setTxSize"}) {
+      try {
+        SimpleMessageListenerContainer.class
+            .getMethod(setter, int.class)
+            .invoke(container, batchSize);
+        return;
+      } catch (NoSuchMethodException e) {
+        // Try the older name
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Failed to set listener batch size", e);
+      }
+    }
+    throw new IllegalStateException("Listener container has no batch size setter");
+  }
+
+  /**
+   * Post a received message to the transfer queue of the queue it was consumed from
+   *
+   * @param message the message
+   */
+  void dispatch(Message message) {
+    recordLatency(message.getMessageProperties());
+
+    String consumerQueue = message.getMessageProperties().getConsumerQueue();
+    Consumer<Message> route = routes.get(consumerQueue);
+    if (route == null) {
+      log.warn("Discarding message from unknown queue {}", consumerQueue);
+      return;
+    }
+    route.accept(message);
+  }
+
   /** A method to close down a SimpleMessageListener and release any resources */
-  public void close() {
+  public synchronized void close() {
     if (this.container != null) {
       this.container.stop();
+      this.container = null;
+    }
+    for (SimpleMessageListenerContainer blockingContainer : blockingContainers) {
+      blockingContainer.stop();
+    }
+    blockingContainers.clear();
+    routes.clear();
+    for (SpillingBlockingQueue<?> queue : spillingQueues) {
+      queue.close();
+    }
+    spillingQueues.clear();
+  }
+
+  /**
+   * Wait for a message that passes a test. Messages that were received before this method was
+   * called are also tested, so there is no race between sending a message and awaiting it.
+   *
+   * <p>Awaiting a message does not remove it from the queue returned by listen. Messages are only
+   * retained for awaiting when the listener is configured with 'retainedMessages' above 0.
+   *
+   * @param predicate the test the parsed message must pass
+   * @param timeout how long to wait for the message
+   * @return the first matching message, or null if none arrived within the timeout
+   */
+  public JsonNode awaitMessage(Predicate<JsonNode> predicate, Duration timeout) {
+    List<JsonNode> found = awaitMessages(1, predicate, timeout);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * Wait for a number of messages that pass a test, including any received before this method
+   * was called.
+   *
+   * @param count the number of messages to wait for
+   * @param predicate the test each parsed message must pass
+   * @param timeout how long to wait for all of the messages
+   * @return the first 'count' matching messages in the order they were received, or fewer if not
+   *     enough arrived within the timeout
+   */
+  public List<JsonNode> awaitMessages(int count, Predicate<JsonNode> predicate, Duration timeout) {
+    return requireIndex(count).await(count, predicate, timeout);
+  }
+
+  /**
+   * Wait for a message holding a value at a JSON path, eg, a message for a particular case. When
+   * the path is one of the configured 'indexedPaths' this is a lookup, however many messages have
+   * been received.
+   *
+   * @param path the dotted JSON path, eg, 'payload.collectionCase.id'
+   * @param value the value the message must hold at the path
+   * @param timeout how long to wait for the message
+   * @return the first matching message, or null if none arrived within the timeout
+   */
+  public JsonNode awaitMessage(String path, String value, Duration timeout) {
+    List<JsonNode> found = requireIndex(1).await(1, path, value, timeout);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * Get the publish to consume latency of the messages received so far from each exchange. Only
+   * messages sent by a SimpleMessageSender with latency stamping enabled are included.
+   *
+   * @return the latency statistics, keyed by exchange name
+   */
+  public Map<String, LatencyStats> getLatencyStats() {
+    return Collections.unmodifiableMap(latencyStats);
+  }
+
+  /** Forget all latency statistics, eg, after warming up */
+  public void resetLatencyStats() {
+    latencyStats.clear();
+  }
+
+  /** Forget all messages retained for the awaitMessage methods */
+  public void clearReceivedMessages() {
+    if (messageIndex != null) {
+      messageIndex.clear();
+    }
+  }
+
+  private MessageIndex requireIndex(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Must wait for at least one message");
+    }
+    if (messageIndex == null) {
+      throw new IllegalStateException(
+          "Awaiting messages requires ListenerConfig 'retainedMessages' above 0");
+    }
+    return messageIndex;
+  }
+
+  /**
+   * Record the latency of a message, if it was stamped by its sender
+   *
+   * @param properties the properties of the message
+   */
+  private void recordLatency(MessageProperties properties) {
+    Object sendTime = properties.getHeaders().get(SEND_TIME_HEADER);
+    Object sequence = properties.getHeaders().get(SEQUENCE_HEADER);
+    if (!(sendTime instanceof Number) || !(sequence instanceof Number)) {
+      return;
+    }
+    long latencyNanos = epochNanos() - ((Number) sendTime).longValue();
+    String exchange = properties.getReceivedExchange();
+    String routingKey = properties.getReceivedRoutingKey();
+    latencyStats
+        .computeIfAbsent(exchange == null ? "" : exchange, LatencyStats::new)
+        .record(
+            latencyNanos,
+            String.valueOf(properties.getHeaders().get(SENDER_HEADER)),
+            properties.getConsumerQueue(),
+            routingKey == null ? "" : routingKey,
+            ((Number) sequence).longValue());
+  }
+
+  /**
+   * Parse a received message and retain it for the awaitMessage methods. Messages which are not
+   * JSON can't be awaited, so are skipped.
+   *
+   * @param msgStr the message
+   */
+  private void index(String msgStr) {
+    if (messageIndex == null) {
+      return;
+    }
+    try {
+      messageIndex.add(objectMapper.readTree(msgStr));
+    } catch (IOException e) {
+      log.debug("Not retaining message which is not JSON: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Parse the raw body of a received message and retain it for the awaitMessage methods. Bodies
+   * that don't start as a JSON object or array are skipped without being parsed, so a stream of
+   * binary messages doesn't pay for a failed parse of each one.
+   *
+   * @param body the body of the message
+   */
+  private void index(byte[] body) {
+    if (messageIndex == null || !looksLikeJson(body)) {
+      return;
+    }
+    try {
+      messageIndex.add(objectMapper.readTree(body));
+    } catch (IOException e) {
+      log.debug("Not retaining message which is not JSON: {}", e.getMessage());
+    }
+  }
+
+  private static boolean looksLikeJson(byte[] body) {
+    for (byte b : body) {
+      if (b == '{' || b == '[') {
+        return true;
+      }
+      if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the number of messages discarded by the DROP_OLDEST overflow policy
+   *
+   * @return the number of messages dropped since the listener was created
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Create the queue that received messages are posted to, according to the configured capacity
+   * and overflow policy
+   *
+   * @param codec converts messages to bytes, should they need to be spilled to disk
+   * @param <T> the type of the messages
+   * @return the queue
+   */
+  private <T> BlockingQueue<T> createTransferQueue(SpillingBlockingQueue.Codec<T> codec) {
+    int capacity = config.getEffectiveQueueCapacity();
+    switch (config.getEffectiveOverflowPolicy()) {
+      case UNBOUNDED:
+        return new LinkedTransferQueue<>();
+      case SPILL_TO_DISK:
+        SpillingBlockingQueue<T> queue =
+            new SpillingBlockingQueue<>(capacity, config.getEffectiveSpillDirectory(), codec);
+        spillingQueues.add(queue);
+        return queue;
+      default:
+        return new ArrayBlockingQueue<>(capacity);
+    }
+  }
+
+  /**
+   * Post a received message to a transfer queue, applying the overflow policy if it is full
+   *
+   * @param transfer the queue
+   * @param message the message
+   * @param <T> the type of the messages
+   */
+  private <T> void post(BlockingQueue<T> transfer, T message) {
+    if (config.getEffectiveOverflowPolicy() == OverflowPolicy.DROP_OLDEST) {
+      while (!transfer.offer(message)) {
+        if (transfer.poll() != null && dropped.incrementAndGet() % 1000 == 1) {
+          log.warn("Listener queue is full, dropped {} messages so far", dropped.get());
+        }
+      }
+      return;
+    }
+
+    try {
+      // Blocking the consumer thread stops it acknowledging messages, so once its prefetched
+      // messages are used up the broker holds back the rest
+      transfer.put(message);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted whilst waiting for room in listener queue", e);
+    }
+  }
+
+  /**
+   * Log a received message at the configured level
+   *
+   * @param format the log message format
+   * @param arg the argument of the format, eg, the message
+   */
+  private void logMessage(String format, Object arg) {
+    switch (logLevel) {
+      case ERROR:
+        log.error(format, arg);
+        break;
+      case WARN:
+        log.warn(format, arg);
+        break;
+      case INFO:
+        log.info(format, arg);
+        break;
+      case DEBUG:
+        log.debug(format, arg);
+        break;
+      default:
+        log.trace(format, arg);
+        break;
     }
   }
 
@@ -0,0 +1,402 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * An unbounded blocking queue which holds up to a fixed number of elements in memory, and writes
+ * any more to a temporary file. Elements keep their order, and are read back into memory as the
+ * elements ahead of them are taken.
+ *
+ * @param <E> the type of the elements
+ */
+class SpillingBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, Closeable {
+
+  /**
+   * Converts elements to and from the bytes written to disk
+   *
+   * @param <E> the type of the elements
+   */
+  interface Codec<E> {
+    byte[] encode(E element);
+
+    E decode(byte[] bytes);
+  }
+
+  private final int memoryCapacity;
+  private final Path directory;
+  private final Codec<E> codec;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final ArrayDeque<E> memory;
+
+  private Path file;
+  private FileChannel channel;
+  private long readPosition;
+  private long writePosition;
+  private int spilled;
+
+  /**
+   * Constructor for a SpillingBlockingQueue
+   *
+   * @param memoryCapacity the number of elements to hold in memory
+   * @param directory the directory to create the spill file in
+   * @param codec converts elements to and from bytes
+   */
+  SpillingBlockingQueue(int memoryCapacity, Path directory, Codec<E> codec) {
+    this.memoryCapacity = memoryCapacity;
+    this.directory = directory;
+    this.codec = codec;
+    this.memory = new ArrayDeque<>(memoryCapacity);
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    lock.lock();
+    try {
+      // Once anything has spilled, later elements must follow it to disk to keep their order
+      if (spilled == 0 && memory.size() < memoryCapacity) {
+        memory.addLast(e);
+      } else {
+        spill(e);
+      }
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(E e) {
+    offer(e);
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) {
+    return offer(e);
+  }
+
+  @Override
+  public E poll() {
+    lock.lock();
+    try {
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (isEmptyLocked()) {
+        notEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (isEmptyLocked()) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public E peek() {
+    lock.lock();
+    try {
+      refill();
+      return memory.peekFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return memory.size() + spilled;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    lock.lock();
+    try {
+      int drained = 0;
+      E e;
+      while (drained < maxElements && (e = dequeue()) != null) {
+        c.add(e);
+        drained++;
+      }
+      return drained;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Iterates over a snapshot of the in-memory elements followed by the spilled elements. Taking
+   * the snapshot reads and decodes every spilled element, so is expensive for a queue that has
+   * spilled heavily. The iterator does not support remove; use {@link #remove(Object)} or {@link
+   * #removeIf(Predicate)} instead.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    lock.lock();
+    try {
+      List<E> snapshot = new ArrayList<>(memory);
+      long position = readPosition;
+      for (int i = 0; i < spilled; i++) {
+        byte[] bytes = read(position);
+        position += Integer.BYTES + bytes.length;
+        snapshot.add(codec.decode(bytes));
+      }
+      return Collections.unmodifiableList(snapshot).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove the first occurrence of an element. If the element has been spilled then the spill file
+   * is rewritten without it, which is expensive for a queue that has spilled heavily.
+   */
+  @Override
+  public boolean remove(Object o) {
+    return o != null && removeMatching(o::equals, true);
+  }
+
+  /** Remove every matching element, rewriting the spill file if any of them have been spilled */
+  @Override
+  public boolean removeIf(Predicate<? super E> filter) {
+    Objects.requireNonNull(filter);
+    return removeMatching(filter, false);
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    Objects.requireNonNull(c);
+    return removeMatching(c::contains, false);
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    Objects.requireNonNull(c);
+    return removeMatching(e -> !c.contains(e), false);
+  }
+
+  /**
+   * Discard every element and delete the spill file. The queue is left empty, and can still be
+   * used, in which case a new spill file is created should it be needed.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      memory.clear();
+      spilled = 0;
+      readPosition = 0;
+      writePosition = 0;
+      if (channel != null) {
+        FileChannel closing = channel;
+        channel = null;
+        closing.close();
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isEmptyLocked() {
+    return memory.isEmpty() && spilled == 0;
+  }
+
+  /**
+   * Remove matching elements from both memory and the spill file
+   *
+   * @param filter the test of which elements to remove
+   * @param firstOnly true to remove only the first matching element
+   * @return true if any element was removed
+   */
+  private boolean removeMatching(Predicate<? super E> filter, boolean firstOnly) {
+    lock.lock();
+    try {
+      boolean removed = false;
+      for (Iterator<E> elements = memory.iterator(); elements.hasNext(); ) {
+        if (filter.test(elements.next())) {
+          elements.remove();
+          removed = true;
+          if (firstOnly) {
+            break;
+          }
+        }
+      }
+      if (spilled > 0 && !(firstOnly && removed)) {
+        List<byte[]> kept = new ArrayList<>(spilled);
+        long position = readPosition;
+        for (int i = 0; i < spilled; i++) {
+          byte[] bytes = read(position);
+          position += Integer.BYTES + bytes.length;
+          if ((firstOnly && removed) || !filter.test(codec.decode(bytes))) {
+            kept.add(bytes);
+          } else {
+            removed = true;
+          }
+        }
+        if (kept.size() < spilled) {
+          rewriteSpillFile(kept);
+        }
+      }
+      // Spilled elements follow those in memory, so moving them into the space freed keeps order
+      refill();
+      return removed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private E dequeue() {
+    refill();
+    return memory.pollFirst();
+  }
+
+  /** Move spilled elements back into memory, as far as there is room for them */
+  private void refill() {
+    while (spilled > 0 && memory.size() < memoryCapacity) {
+      byte[] bytes = read(readPosition);
+      readPosition += Integer.BYTES + bytes.length;
+      spilled--;
+      memory.addLast(codec.decode(bytes));
+    }
+    if (spilled == 0 && channel != null && readPosition > 0) {
+      // Everything spilled has been read back, so start the file again rather than letting it grow
+      try {
+        channel.truncate(0);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      readPosition = 0;
+      writePosition = 0;
+    }
+  }
+
+  private void spill(E e) {
+    writeRecord(codec.encode(e));
+    spilled++;
+  }
+
+  /** Replace the contents of the spill file with the given encoded elements */
+  private void rewriteSpillFile(List<byte[]> records) {
+    try {
+      channel.truncate(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    readPosition = 0;
+    writePosition = 0;
+    spilled = 0;
+    for (byte[] bytes : records) {
+      writeRecord(bytes);
+      spilled++;
+    }
+  }
+
+  private void writeRecord(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+    buffer.putInt(bytes.length).put(bytes).flip();
+    try {
+      if (channel == null) {
+        file = Files.createTempFile(directory, "listener-spill-", ".bin");
+        file.toFile().deleteOnExit();
+        channel =
+            FileChannel.open(
+                file,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+      }
+      while (buffer.hasRemaining()) {
+        writePosition += channel.write(buffer, writePosition);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to spill message to " + file, ex);
+    }
+  }
+
+  private byte[] read(long position) {
+    try {
+      ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+      readFully(length, position);
+      ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+      readFully(bytes, position + Integer.BYTES);
+      return bytes.array();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read spilled message from " + file, e);
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of spill file");
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package uk.gov.ons.ctp.common;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FixtureCompilerTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCompiledFixtureMatchesJson() throws Exception {
+    Path source = folder.getRoot().toPath().resolve("FixtureHelperTest.json");
+    URL fixture = ClassLoader.getSystemResource("uk/gov/ons/ctp/common/FixtureHelperTest.json");
+    Files.copy(Paths.get(fixture.toURI()), source);
+
+    assertEquals(1, new FixtureCompiler().compileAll(folder.getRoot().toPath()));
+
+    Path compiled = source.resolveSibling("FixtureHelperTest.smile");
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode expected = mapper.readTree(source.toFile());
+    JsonNode actual = new ObjectMapper(new SmileFactory()).readTree(compiled.toFile());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testUpToDateFixtureIsNotRecompiled() throws Exception {
+    Path source = folder.getRoot().toPath().resolve("FooTest.String.json");
+    Files.write(source, "[\"a\", \"b\"]".getBytes("UTF-8"));
+
+    FixtureCompiler compiler = new FixtureCompiler();
+    assertEquals(1, compiler.compileAll(folder.getRoot().toPath()));
+    assertEquals(0, compiler.compileAll(folder.getRoot().toPath()));
+  }
+}
@@ -0,0 +1,69 @@
+package uk.gov.ons.ctp.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FixtureGeneratorTest {
+  private static final String TEMPLATE_ID = "3305e937-6fb1-4ce1-9d4c-077f147789ab";
+
+  private JsonNode template;
+
+  @Before
+  public void setUp() throws Exception {
+    template =
+        new ObjectMapper()
+            .readTree(
+                "{\"id\":\""
+                    + TEMPLATE_ID
+                    + "\",\"caseRef\":\"10000000010\","
+                    + "\"createdDateTime\":\"2019-04-10T15:32:38.941+01:00\","
+                    + "\"address\":{\"addressLine1\":\"1 Main Street\",\"postcode\":\"UP103UP\"},"
+                    + "\"events\":[{\"caseId\":\""
+                    + TEMPLATE_ID
+                    + "\"}]}");
+  }
+
+  @Test
+  public void testGeneratedInstancesVary() {
+    FixtureGenerator generator = FixtureGenerator.builder().template(template).seed(1L).build();
+    List<JsonNode> instances = generator.stream(2).collect(Collectors.toList());
+
+    for (JsonNode instance : instances) {
+      String id = instance.get("id").asText();
+      TestHelper.validateAsUUID(id);
+      TestHelper.validateAsDateTime(instance.get("createdDateTime").asText());
+      assertNotEquals(TEMPLATE_ID, id);
+      assertEquals(id, instance.get("events").get(0).get("caseId").asText());
+      assertEquals("10000000010", instance.get("caseRef").asText());
+    }
+    assertNotEquals(instances.get(0).get("id"), instances.get(1).get("id"));
+  }
+
+  @Test
+  public void testGenerationIsDeterministic() {
+    FixtureGenerator first = FixtureGenerator.builder().template(template).seed(42L).build();
+    FixtureGenerator second = FixtureGenerator.builder().template(template).seed(42L).build();
+
+    assertEquals(first.generate(7, JsonNode.class), second.generate(7, JsonNode.class));
+    assertEquals(first.stream(10).skip(9).findFirst().get(), second.generate(9, JsonNode.class));
+  }
+
+  @Test
+  public void testWriteNdjson() throws Exception {
+    FixtureGenerator generator = FixtureGenerator.builder().template(template).build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    generator.writeNdjson(5, out);
+
+    String[] lines = out.toString("UTF-8").split("\n");
+    assertEquals(5, lines.length);
+    assertEquals(generator.generate(3, JsonNode.class), new ObjectMapper().readTree(lines[3]));
+  }
+}
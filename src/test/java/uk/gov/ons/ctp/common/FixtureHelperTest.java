@@ -0,0 +1,251 @@
+package uk.gov.ons.ctp.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FixtureHelperTest {
+  private static final String FIXTURE_DIR = "uk/gov/ons/ctp/common/";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() {
+    FixtureHelper.getFixtureCache().clear();
+  }
+
+  @Test
+  public void testLoadClassFixtures() {
+    List<String> values = FixtureHelper.loadClassFixtures(String[].class);
+    assertEquals(3, values.size());
+    assertEquals("first", values.get(0));
+  }
+
+  @Test
+  public void testRepeatedLoadIsServedFromCache() {
+    FixtureHelper.loadClassFixtures(String[].class);
+    FixtureHelper.loadClassFixtures(String[].class);
+    FixtureHelper.loadClassFixtures(String[].class);
+
+    FixtureCache<JsonNode> cache = FixtureHelper.getFixtureCache();
+    assertEquals(1, cache.getMisses());
+    assertEquals(2, cache.getHits());
+  }
+
+  @Test
+  public void testCachedObjectNodeIsIsolatedBetweenCallers() {
+    ObjectNode first = FixtureHelper.loadClassObjectNode();
+    first.put("caseRef", "changed");
+    ((ObjectNode) first.get("address")).remove("postcode");
+
+    ObjectNode second = FixtureHelper.loadClassObjectNode();
+    assertNotSame(first, second);
+    assertEquals("10000000010", second.get("caseRef").asText());
+    assertTrue(second.get("address").has("postcode"));
+  }
+
+  @Test
+  public void testCacheEvictsLeastRecentlyUsed() {
+    FixtureCache<JsonNode> cache = FixtureHelper.getFixtureCache();
+    int originalMax = cache.getMaxEntries();
+    try {
+      cache.setMaxEntries(1);
+      FixtureHelper.loadClassFixtures(String[].class);
+      FixtureHelper.loadClassObjectNode();
+      assertEquals(1, cache.size());
+      assertEquals(1, cache.getEvictions());
+    } finally {
+      cache.setMaxEntries(originalMax);
+    }
+  }
+
+  @Test
+  public void testShrinkingCacheEvictsAtOnce() {
+    FixtureCache<JsonNode> cache = FixtureHelper.getFixtureCache();
+    int originalMax = cache.getMaxEntries();
+    try {
+      FixtureHelper.loadClassFixtures(String[].class);
+      FixtureHelper.loadClassObjectNode();
+      assertEquals(2, cache.size());
+
+      cache.setMaxEntries(1);
+      assertEquals(1, cache.size());
+      assertEquals(1, cache.getEvictions());
+
+      // The most recently used fixture is the one kept
+      FixtureHelper.loadClassObjectNode();
+      assertEquals(1, cache.getHits());
+    } finally {
+      cache.setMaxEntries(originalMax);
+    }
+  }
+
+  @Test
+  public void testStreamClassFixturesFromJsonArray() {
+    try (Stream<String> values = FixtureHelper.streamClassFixtures(String.class)) {
+      assertEquals(Arrays.asList("first", "second", "third"), values.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void testStreamClassFixturesFromNewlineDelimitedJson() {
+    try (Stream<String> values = FixtureHelper.streamClassFixtures(String.class, "ndjson")) {
+      assertEquals(4, values.count());
+    }
+  }
+
+  @Test
+  public void testPreloadedFixturesAreServedFromCache() {
+    Map<String, Duration> report = FixtureHelper.preload(FixtureHelperTest.class);
+    assertTrue(report.containsKey("uk/gov/ons/ctp/common/FixtureHelperTest.String.json"));
+    assertTrue(report.containsKey("uk/gov/ons/ctp/common/FixtureHelperTest.json"));
+
+    FixtureCache<JsonNode> cache = FixtureHelper.getFixtureCache();
+    long misses = cache.getMisses();
+    FixtureHelper.loadClassFixtures(String[].class);
+    FixtureHelper.loadClassObjectNode();
+    assertEquals(misses, cache.getMisses());
+  }
+
+  @Test
+  public void testPreloadReportsOnlyFixturesItParsed() {
+    String ndjsonPath = "uk/gov/ons/ctp/common/FixtureHelperTest.String.ndjson.json";
+    FixtureHelper.loadClassObjectNode();
+
+    Map<String, Duration> report = FixtureHelper.preload(FixtureHelperTest.class);
+    assertFalse(report.containsKey("uk/gov/ons/ctp/common/FixtureHelperTest.json"));
+    assertTrue(report.containsKey("uk/gov/ons/ctp/common/FixtureHelperTest.String.json"));
+    assertTrue(report.containsKey(ndjsonPath));
+    assertFalse(FixtureHelper.getFixtureCache().contains(ndjsonPath));
+
+    assertEquals(
+        Collections.singleton(ndjsonPath), FixtureHelper.preload(FixtureHelperTest.class).keySet());
+  }
+
+  @Test
+  public void testUntouchedLazyJsonObjectIsWrittenVerbatim() throws Exception {
+    LazyJsonObject view = FixtureHelper.loadClassLazyJsonObject();
+    ObjectNode expected = FixtureHelper.loadClassObjectNode();
+
+    assertEquals(expected, new ObjectMapper().readTree(view.toBytes()));
+    assertTrue(view.toString().contains("\"addressLine1\": \"1 Main Street\""));
+  }
+
+  @Test
+  public void testLazyJsonObjectChangesAreWritten() {
+    LazyJsonObject view = FixtureHelper.loadClassLazyJsonObject();
+    assertEquals("10000000010", view.get("caseRef").asText());
+
+    view.getObject("address").put("postcode", "XX1 1XX");
+    view.remove("id");
+    view.put("surname", "Smith");
+
+    ObjectNode written = view.toObjectNode();
+    assertEquals("XX1 1XX", written.get("address").get("postcode").asText());
+    assertEquals("Upton", written.get("address").get("townName").asText());
+    assertEquals("Smith", written.get("surname").asText());
+    assertFalse(written.has("id"));
+
+    LazyJsonObject fresh = FixtureHelper.loadClassLazyJsonObject();
+    assertEquals("UP103UP", fresh.getObject("address").get("postcode").asText());
+  }
+
+  @Test
+  public void testGetAfterGetObjectKeepsTheNestedViewAttached() {
+    LazyJsonObject view = FixtureHelper.loadClassLazyJsonObject();
+    LazyJsonObject address = view.getObject("address");
+    address.put("postcode", "XX1 1XX");
+
+    ObjectNode node = (ObjectNode) view.get("address");
+    assertSame(node, view.get("address"));
+    assertSame(address, view.getObject("address"));
+    assertEquals("XX1 1XX", node.get("postcode").asText());
+
+    address.put("townName", "Downton");
+    node.put("addressLine1", "2 Main Street");
+
+    ObjectNode written = view.toObjectNode();
+    assertEquals("XX1 1XX", written.get("address").get("postcode").asText());
+    assertEquals("Downton", written.get("address").get("townName").asText());
+    assertEquals("2 Main Street", address.get("addressLine1").asText());
+    assertEquals("2 Main Street", written.get("address").get("addressLine1").asText());
+  }
+
+  @Test
+  public void testCompiledFixturesLoadTheSameAsJson() throws Exception {
+    List<String> jsonValues = FixtureHelper.loadClassFixtures(String[].class);
+    ObjectNode jsonNode = FixtureHelper.loadClassObjectNode();
+
+    compileFixture("FixtureHelperTest.String.json");
+    compileFixture("FixtureHelperTest.json");
+    FixtureHelper.getFixtureCache().clear();
+    withCompiledFixtures(
+        () -> {
+          assertEquals(jsonValues, FixtureHelper.loadClassFixtures(String[].class));
+          assertEquals(jsonNode, FixtureHelper.loadClassObjectNode());
+          try (Stream<String> values = FixtureHelper.streamClassFixtures(String.class)) {
+            assertEquals(jsonValues, values.collect(Collectors.toList()));
+          }
+        });
+  }
+
+  @Test
+  public void testCompiledFixtureIsReadInPreferenceToJson() throws Exception {
+    Path source = folder.getRoot().toPath().resolve("changed.json");
+    Files.write(source, "[\"compiled\"]".getBytes(StandardCharsets.UTF_8));
+    Path target = folder.getRoot().toPath().resolve(FIXTURE_DIR + "FixtureHelperTest.String.smile");
+    Files.createDirectories(target.getParent());
+    new FixtureCompiler().compile(source, target);
+
+    withCompiledFixtures(
+        () ->
+            assertEquals(
+                Collections.singletonList("compiled"),
+                FixtureHelper.loadClassFixtures(String[].class)));
+  }
+
+  /** Compile a fixture into the temporary folder, under the same classpath relative path */
+  private void compileFixture(String fileName) throws Exception {
+    URL fixture = ClassLoader.getSystemResource(FIXTURE_DIR + fileName);
+    Path target =
+        folder.getRoot().toPath().resolve(FixtureCompiler.compiledPath(FIXTURE_DIR + fileName));
+    Files.createDirectories(target.getParent());
+    new FixtureCompiler().compile(Paths.get(fixture.toURI()), target);
+  }
+
+  /** Run a check with the temporary folder ahead of the test resources on the classpath */
+  private void withCompiledFixtures(Runnable check) throws Exception {
+    Thread thread = Thread.currentThread();
+    ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader =
+        new URLClassLoader(new URL[] {folder.getRoot().toURI().toURL()}, original)) {
+      thread.setContextClassLoader(loader);
+      check.run();
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BackoffTest {
+
+  @Test
+  public void testDefaultsToFixedDelay() {
+    Backoff backoff = new Backoff(null, null, null);
+    assertEquals(10, backoff.nextDelay());
+    assertEquals(10, backoff.nextDelay());
+    assertEquals(10, backoff.nextDelay());
+  }
+
+  @Test
+  public void testExponentialDelayIsCapped() {
+    Backoff backoff = new Backoff(BackoffStrategy.EXPONENTIAL, 10L, 50L);
+    assertEquals(10, backoff.nextDelay());
+    assertEquals(20, backoff.nextDelay());
+    assertEquals(40, backoff.nextDelay());
+    assertEquals(50, backoff.nextDelay());
+    assertEquals(50, backoff.nextDelay());
+  }
+
+  @Test
+  public void testDecorrelatedJitterStaysWithinBounds() {
+    Backoff backoff = new Backoff(BackoffStrategy.DECORRELATED_JITTER, 10L, 200L);
+    long previous = backoff.nextDelay();
+    assertEquals(10, previous);
+    for (int i = 0; i < 100; i++) {
+      long delay = backoff.nextDelay();
+      assertTrue(delay >= 10);
+      assertTrue(delay <= Math.min(200, previous * 3));
+      previous = delay;
+    }
+  }
+
+  @Test
+  public void testThrottlingLengthensFixedDelay() {
+    Backoff backoff = new Backoff(BackoffStrategy.FIXED, 10L, 30L);
+    assertEquals(10, backoff.nextDelay());
+    assertEquals(20, backoff.throttledDelay());
+    assertEquals(30, backoff.throttledDelay());
+    assertEquals(10, backoff.nextDelay());
+  }
+}
@@ -0,0 +1,99 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class ContentMatcherTest {
+
+  private Map<String, Object> caseObject() {
+    Map<String, Object> contact = new HashMap<>();
+    contact.put("forename", "Jo");
+    contact.put("surname", "Smith");
+
+    Map<String, Object> caseObject = new HashMap<>();
+    caseObject.put("state", "ACTIVE");
+    caseObject.put("version", 3L);
+    caseObject.put("score", 2.5);
+    caseObject.put("handDelivery", true);
+    caseObject.put("contact", contact);
+    caseObject.put("uacs", Arrays.asList("a1", "b2"));
+    return caseObject;
+  }
+
+  @Test
+  public void testStringAndNestedPath() {
+    assertTrue(ContentMatcher.equalTo("state", "ACTIVE").matches(caseObject()));
+    assertTrue(ContentMatcher.equalTo("contact.forename", "Jo").matches(caseObject()));
+    assertFalse(ContentMatcher.equalTo("contact.forename", "Al").matches(caseObject()));
+    assertFalse(ContentMatcher.equalTo("state.forename", "Jo").matches(caseObject()));
+    assertFalse(ContentMatcher.equalTo("missing", "Jo").matches(caseObject()));
+  }
+
+  @Test
+  public void testNumbersComparedByValue() {
+    assertTrue(ContentMatcher.equalTo("version", 3).matches(caseObject()));
+    assertTrue(ContentMatcher.equalTo("version", 3.0).matches(caseObject()));
+    assertTrue(ContentMatcher.equalTo("score", 2.50).matches(caseObject()));
+    assertFalse(ContentMatcher.equalTo("version", 4).matches(caseObject()));
+    assertFalse(ContentMatcher.equalTo("version", "3").matches(caseObject()));
+  }
+
+  @Test
+  public void testBoolean() {
+    assertTrue(ContentMatcher.equalTo("handDelivery", true).matches(caseObject()));
+    assertFalse(ContentMatcher.equalTo("handDelivery", false).matches(caseObject()));
+  }
+
+  @Test
+  public void testNestedMapMatchesSubset() {
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("surname", "Smith");
+    assertTrue(ContentMatcher.equalTo("contact", expected).matches(caseObject()));
+    expected.put("forename", "Al");
+    assertFalse(ContentMatcher.equalTo("contact", expected).matches(caseObject()));
+  }
+
+  @Test
+  public void testListContains() {
+    assertTrue(ContentMatcher.listContains("uacs", "b2").matches(caseObject()));
+    assertFalse(ContentMatcher.listContains("uacs", "c3").matches(caseObject()));
+    assertFalse(ContentMatcher.listContains("state", "ACTIVE").matches(caseObject()));
+  }
+
+  @Test
+  public void testNumbersInListsComparedByValue() {
+    Map<String, Object> caseObject = caseObject();
+    caseObject.put("counts", Arrays.asList(1L, 2.0));
+    caseObject.put("grid", Arrays.asList(Arrays.asList(1L, 2L), Arrays.asList(3.0)));
+
+    assertTrue(ContentMatcher.equalTo("counts", Arrays.asList(1, 2)).matches(caseObject));
+    assertFalse(ContentMatcher.equalTo("counts", Arrays.asList(2, 1)).matches(caseObject));
+    assertFalse(ContentMatcher.equalTo("counts", Arrays.asList(1)).matches(caseObject));
+    assertTrue(ContentMatcher.listContains("counts", 1).matches(caseObject));
+    assertTrue(ContentMatcher.listContains("grid", Arrays.asList(3)).matches(caseObject));
+    assertFalse(ContentMatcher.listContains("grid", Arrays.asList(2, 1)).matches(caseObject));
+  }
+
+  @Test
+  public void testAllOfCollectsEveryPath() {
+    ContentMatcher matcher =
+        ContentMatcher.allOf(
+            ContentMatcher.equalTo("state", "ACTIVE"),
+            ContentMatcher.equalTo("contact.surname", "Smith"));
+    assertTrue(matcher.matches(caseObject()));
+    assertFalse(
+        ContentMatcher.allOf(matcher, ContentMatcher.equalTo("version", 1)).matches(caseObject()));
+
+    Set<ContentPath> paths = new LinkedHashSet<>();
+    matcher.collectPaths(paths);
+    assertTrue(paths.contains(ContentPath.of("state")));
+    assertTrue(paths.contains(ContentPath.of("contact.surname")));
+  }
+}
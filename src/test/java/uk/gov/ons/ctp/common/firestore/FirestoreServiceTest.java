@@ -0,0 +1,66 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FirestoreServiceTest {
+  // Nothing listens here. Creating a client doesn't connect, so these tests never read Firestore.
+  private static final String EMULATOR_HOST = "localhost:18540";
+
+  @After
+  public void tearDown() {
+    FirestoreService.configure(null);
+  }
+
+  private static FirestoreService.Config emulatorConfig(String projectId) {
+    return FirestoreService.Config.builder()
+        .projectId(projectId)
+        .emulatorHost(EMULATOR_HOST)
+        .channelPoolSize(2)
+        .build();
+  }
+
+  @Test
+  public void testInstanceUsesConfigAndIsShared() {
+    FirestoreService.configure(emulatorConfig("census-test"));
+
+    FirestoreService service = FirestoreService.instance();
+    assertEquals("census-test", service.getGcpProject());
+    assertSame(service, FirestoreService.instance());
+  }
+
+  @Test
+  public void testConfigureReplacesConnectedInstance() {
+    FirestoreService.configure(emulatorConfig("census-test"));
+    FirestoreService first = FirestoreService.instance();
+
+    FirestoreService.configure(emulatorConfig("census-other"));
+    FirestoreService second = FirestoreService.instance();
+    assertNotSame(first, second);
+    assertEquals("census-other", second.getGcpProject());
+  }
+
+  @Test
+  public void testShutdownReleasesSharedInstance() {
+    FirestoreService.configure(emulatorConfig("census-test"));
+    FirestoreService first = FirestoreService.instance();
+
+    first.shutdown();
+    FirestoreService second = FirestoreService.instance();
+    assertNotSame(first, second);
+    assertEquals("census-test", second.getGcpProject());
+  }
+
+  @Test
+  public void testShutdownOfOtherServiceLeavesSharedInstance() {
+    FirestoreService.configure(emulatorConfig("census-test"));
+    FirestoreService shared = FirestoreService.instance();
+
+    new FirestoreService(emulatorConfig("census-other")).shutdown();
+    assertSame(shared, FirestoreService.instance());
+  }
+}
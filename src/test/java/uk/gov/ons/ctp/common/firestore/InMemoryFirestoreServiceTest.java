@@ -0,0 +1,235 @@
+package uk.gov.ons.ctp.common.firestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.firestore.ListenerRegistration;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryFirestoreServiceTest {
+  private static final String CASE_ID = "f868fcfc-7280-40ea-ab01-b173ac245da3";
+
+  private InMemoryFirestoreService firestore;
+
+  @Before
+  public void setUp() {
+    firestore = new InMemoryFirestoreService();
+  }
+
+  @After
+  public void tearDown() {
+    firestore.shutdown();
+  }
+
+  private FirestoreWait.FirestoreWaitBuilder waitForCase() {
+    return FirestoreWait.builder()
+        .firestoreService(firestore)
+        .collection("case")
+        .key(CASE_ID)
+        .timeout(2000L);
+  }
+
+  @Test
+  public void testWaitFindsObjectWrittenWithLatency() throws Exception {
+    firestore.setWriteLatency(Duration.ofMillis(50));
+    firestore.put("case", CASE_ID, Collections.singletonMap("state", "ACTIVE"));
+    assertNull(firestore.get("case", CASE_ID));
+
+    FirestoreWaitMetrics metrics = new FirestoreWaitMetrics();
+    Long updateTime = waitForCase().metrics(metrics).waitForObject();
+
+    assertNotNull(updateTime);
+    assertTrue(metrics.getAttempts() > 1);
+    assertTrue(metrics.getFirstSeenLatencyMillis() >= 40);
+  }
+
+  @Test
+  public void testInterruptedWaitKeepsInterruptFlag() throws Exception {
+    Thread.currentThread().interrupt();
+    try {
+      assertNull(waitForCase().waitForObject());
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void testMetricsSharedBetweenParallelWaitsCountEveryAttempt() throws Exception {
+    FirestoreWaitMetrics metrics = new FirestoreWaitMetrics();
+    CompletableFuture<?>[] waits = new CompletableFuture<?>[8];
+    for (int i = 0; i < waits.length; i++) {
+      waits[i] =
+          CompletableFuture.runAsync(
+              () -> {
+                for (int j = 0; j < 1000; j++) {
+                  metrics.recordAttempt();
+                  metrics.recordSleep(1);
+                }
+              });
+    }
+    CompletableFuture.allOf(waits).get();
+
+    assertEquals(8000, metrics.getAttempts());
+    assertEquals(8000, metrics.getTotalSleepMillis());
+  }
+
+  @Test
+  public void testWaitTimesOut() throws Exception {
+    FirestoreWaitMetrics metrics = new FirestoreWaitMetrics();
+    assertNull(waitForCase().timeout(50L).metrics(metrics).waitForObject());
+    assertNull(metrics.getFirstSeenLatencyMillis());
+  }
+
+  @Test
+  public void testWaitForUpdate() throws Exception {
+    firestore.put("case", CASE_ID, Collections.singletonMap("state", "ACTIVE"));
+    long firstUpdate = waitForCase().waitForObject();
+
+    firestore.setWriteLatency(Duration.ofMillis(20));
+    firestore.update("case", CASE_ID, "contact.forename", "Jo");
+    Long secondUpdate =
+        waitForCase()
+            .newerThan(firstUpdate)
+            .contentCheckPath("contact.forename")
+            .expectedValue("Jo")
+            .contentMatcher(ContentMatcher.equalTo("state", "ACTIVE"))
+            .waitForObject();
+
+    assertTrue(secondUpdate > firstUpdate);
+    assertEquals("ACTIVE", firestore.get("case", CASE_ID).get("state"));
+  }
+
+  @Test
+  public void testSnapshotListenerAndAsyncWaits() throws Exception {
+    firestore.setWriteLatency(Duration.ofMillis(30));
+    CompletableFuture<Long> listening =
+        waitForCase().useSnapshotListener(true).waitForObjectAsync();
+    CompletableFuture<Long> polling = waitForCase().waitForObjectAsync();
+    firestore.put("case", CASE_ID, Collections.singletonMap("state", "ACTIVE"));
+
+    assertNotNull(waitForCase().useSnapshotListener(true).waitForObject());
+    assertEquals(listening.get(), polling.get());
+  }
+
+  @Test
+  public void testAsyncPollGivesUpWhenReadNeverReturns() throws Exception {
+    InMemoryFirestoreService hung =
+        new InMemoryFirestoreService() {
+          @Override
+          public CompletableFuture<Long> objectExistsAsync(
+              String collectionName, String key, Long newerThan, ContentMatcher contentMatcher) {
+            return new CompletableFuture<>();
+          }
+        };
+    try {
+      CompletableFuture<Long> waiting =
+          waitForCase().firestoreService(hung).timeout(100L).waitForObjectAsync();
+      assertNull(waiting.get(2, TimeUnit.SECONDS));
+    } finally {
+      hung.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsyncPollFailsWhenReadThrows() throws Exception {
+    InMemoryFirestoreService broken =
+        new InMemoryFirestoreService() {
+          @Override
+          public CompletableFuture<Long> objectExistsAsync(
+              String collectionName, String key, Long newerThan, ContentMatcher contentMatcher) {
+            throw new IllegalStateException("Not configured");
+          }
+        };
+    try {
+      CompletableFuture<Long> waiting =
+          waitForCase().firestoreService(broken).waitForObjectAsync();
+      try {
+        waiting.get(2, TimeUnit.SECONDS);
+        fail("Expected the wait to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    } finally {
+      broken.shutdown();
+    }
+  }
+
+  @Test
+  public void testPutCopiesListsAndTheMapsInThem() {
+    Map<String, Object> contact = new HashMap<>();
+    contact.put("forename", "Jo");
+    List<Object> contacts = new ArrayList<>(Collections.singletonList(contact));
+    firestore.put("case", CASE_ID, Collections.singletonMap("contacts", contacts));
+
+    contact.put("forename", "Al");
+    contacts.add("extra");
+
+    List<?> stored = (List<?>) firestore.get("case", CASE_ID).get("contacts");
+    assertEquals(1, stored.size());
+    assertEquals("Jo", ((Map<?, ?>) stored.get(0)).get("forename"));
+    try {
+      stored.clear();
+      fail("Expected the stored list to be unmodifiable");
+    } catch (UnsupportedOperationException e) {
+      // As expected
+    }
+  }
+
+  @Test
+  public void testDeleteNotifiesListeners() throws Exception {
+    BlockingQueue<Optional<Map<String, Object>>> changes = new LinkedBlockingQueue<>();
+    firestore.put("case", CASE_ID, Collections.singletonMap("state", "ACTIVE"));
+    ListenerRegistration registration =
+        firestore.watch("case", CASE_ID, fields -> changes.add(Optional.ofNullable(fields)));
+    try {
+      assertEquals("ACTIVE", changes.poll(1, TimeUnit.SECONDS).get().get("state"));
+
+      firestore.delete("case", CASE_ID);
+      assertFalse(changes.poll(1, TimeUnit.SECONDS).isPresent());
+
+      firestore.put("case", CASE_ID, Collections.singletonMap("state", "ARCHIVED"));
+      assertEquals("ARCHIVED", changes.poll(1, TimeUnit.SECONDS).get().get("state"));
+    } finally {
+      registration.remove();
+    }
+  }
+
+  @Test
+  public void testBatchWait() throws Exception {
+    firestore.put("case", "a", Collections.singletonMap("state", "ACTIVE"));
+    firestore.put("case", "b", Collections.singletonMap("state", "ACTIVE"));
+
+    Map<String, Long> found =
+        FirestoreBatchWait.builder()
+            .firestoreService(firestore)
+            .collection("case")
+            .keys(Arrays.asList("a", "b", "c"))
+            .timeout(50L)
+            .batchSize(2)
+            .waitForObjects();
+
+    assertNotNull(found.get("a"));
+    assertNotNull(found.get("b"));
+    assertNull(found.get("c"));
+  }
+}
@@ -0,0 +1,73 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+
+  @Test
+  public void testPercentilesWithinOnePercent() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    for (long micros = 1; micros <= 10000; micros++) {
+      recorder.record(micros * 1000);
+    }
+
+    assertEquals(10000, recorder.getCount());
+    assertEquals(1000, recorder.getMin());
+    assertEquals(10_000_000, recorder.getMax());
+    assertWithinOnePercent(5_000_000, recorder.getPercentile(50));
+    assertWithinOnePercent(9_900_000, recorder.getPercentile(99));
+    assertEquals(10_000_000, recorder.getPercentile(100));
+  }
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    for (long value : new long[] {0, 1, 127, 128, 129, 255, 256, 1 << 20, Long.MAX_VALUE}) {
+      int index = LatencyRecorder.indexOf(value);
+      assertTrue(value <= LatencyRecorder.highestValueAt(index));
+      assertTrue(index == 0 || value > LatencyRecorder.highestValueAt(index - 1));
+    }
+  }
+
+  @Test
+  public void testSequenceGapsAndDuplicates() {
+    LatencyStats stats = new LatencyStats("events");
+    for (long sequence : new long[] {1, 2, 4, 4, 6}) {
+      stats.record(1000, "sender", "cases", "event.case", sequence);
+    }
+    stats.record(1000, "other", "cases", "event.case", 1);
+
+    assertEquals(6, stats.getLatency().getCount());
+    assertEquals(2, stats.getMissing());
+    assertEquals(1, stats.getDuplicates());
+  }
+
+  @Test
+  public void testSequenceJoinedPartWayThrough() {
+    LatencyStats stats = new LatencyStats("events");
+    for (long sequence : new long[] {1001, 1002, 1004, 1005}) {
+      stats.record(1000, "sender", "cases", "event.case", sequence);
+    }
+
+    assertEquals(1, stats.getMissing());
+    assertEquals(0, stats.getDuplicates());
+  }
+
+  @Test
+  public void testSequenceNumberArrivingBeforeTheFirstReceived() {
+    LatencyStats stats = new LatencyStats("events");
+    for (long sequence : new long[] {10, 12, 8, 11, 12}) {
+      stats.record(1000, "sender", "cases", "event.case", sequence);
+    }
+
+    assertEquals(1, stats.getMissing());
+    assertEquals(1, stats.getDuplicates());
+  }
+
+  private static void assertWithinOnePercent(long expected, long actual) {
+    assertTrue(
+        actual + " not within 1% of " + expected, Math.abs(actual - expected) <= expected / 100);
+  }
+}
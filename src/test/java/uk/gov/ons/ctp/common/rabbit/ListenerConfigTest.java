@@ -0,0 +1,70 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import org.junit.Test;
+import org.slf4j.event.Level;
+import uk.gov.ons.ctp.common.FixtureHelper;
+
+public class ListenerConfigTest {
+
+  @Test
+  public void testDefaults() {
+    ListenerConfig config = ListenerConfig.builder().build();
+
+    assertEquals(1, config.getEffectiveConcurrentConsumers());
+    assertEquals(250, config.getEffectivePrefetchCount());
+    assertEquals(1, config.getEffectiveBatchSize());
+    assertEquals(Level.INFO, config.getEffectiveLogLevel());
+    assertEquals(StandardCharsets.UTF_8, config.getEffectiveCharset());
+    assertEquals(100, config.getEffectiveQueueCapacity());
+    assertEquals(OverflowPolicy.UNBOUNDED, config.getEffectiveOverflowPolicy());
+    assertEquals(
+        Paths.get(System.getProperty("java.io.tmpdir")), config.getEffectiveSpillDirectory());
+    assertEquals(0, config.getEffectiveRetainedMessages());
+    assertTrue(config.getEffectiveIndexedPaths().isEmpty());
+    assertSame(FixtureHelper.getObjectMapper(), config.getEffectiveObjectMapper());
+  }
+
+  @Test
+  public void testSuppliedSettingsOverrideDefaults() {
+    ObjectMapper mapper = new ObjectMapper();
+    ListenerConfig config =
+        ListenerConfig.builder()
+            .concurrentConsumers(4)
+            .prefetchCount(1000)
+            .batchSize(50)
+            .logLevel(Level.DEBUG)
+            .charset(StandardCharsets.ISO_8859_1)
+            .objectMapper(mapper)
+            .build();
+
+    assertEquals(4, config.getEffectiveConcurrentConsumers());
+    assertEquals(1000, config.getEffectivePrefetchCount());
+    assertEquals(50, config.getEffectiveBatchSize());
+    assertEquals(Level.DEBUG, config.getEffectiveLogLevel());
+    assertEquals(StandardCharsets.ISO_8859_1, config.getEffectiveCharset());
+    assertSame(mapper, config.getEffectiveObjectMapper());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testListenerRejectsBatchLargerThanPrefetch() {
+    new SimpleMessageListener(
+        "localhost",
+        5672,
+        "guest",
+        "guest",
+        ListenerConfig.builder().prefetchCount(10).batchSize(20).build());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testListenerRejectsBatchLargerThanDefaultPrefetch() {
+    new SimpleMessageListener(
+        "localhost", 5672, "guest", "guest", ListenerConfig.builder().batchSize(251).build());
+  }
+}
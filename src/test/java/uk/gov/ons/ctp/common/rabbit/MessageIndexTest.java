@@ -0,0 +1,91 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+public class MessageIndexTest {
+  private static final String CASE_ID_PATH = "payload.collectionCase.id";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private JsonNode caseEvent(String caseId, String type) throws Exception {
+    return mapper.readTree(
+        "{\"event\":{\"type\":\""
+            + type
+            + "\"},\"payload\":{\"collectionCase\":{\"id\":\""
+            + caseId
+            + "\"}}}");
+  }
+
+  @Test
+  public void testFindsAlreadyReceivedMessageByIndexedPath() throws Exception {
+    MessageIndex index = new MessageIndex(100, Collections.singletonList(CASE_ID_PATH));
+    for (int i = 0; i < 50; i++) {
+      index.add(caseEvent("case-" + i, "CASE_CREATED"));
+    }
+
+    List<JsonNode> found = index.await(1, CASE_ID_PATH, "case-42", Duration.ofMillis(10));
+
+    assertEquals(1, found.size());
+    assertEquals("case-42", found.get(0).at("/payload/collectionCase/id").asText());
+  }
+
+  @Test
+  public void testChangingAReturnedMessageDoesNotCorruptTheIndex() throws Exception {
+    MessageIndex index = new MessageIndex(2, Collections.singletonList(CASE_ID_PATH));
+    index.add(caseEvent("a", "CASE_CREATED"));
+    index.add(caseEvent("b", "CASE_CREATED"));
+
+    JsonNode returned = index.await(1, CASE_ID_PATH, "a", Duration.ofMillis(10)).get(0);
+    ((ObjectNode) returned.at("/payload/collectionCase")).put("id", "b");
+
+    // Evicts both of the original messages
+    index.add(caseEvent("b", "CASE_UPDATED"));
+    index.add(caseEvent("c", "CASE_CREATED"));
+
+    assertTrue(index.await(1, CASE_ID_PATH, "a", Duration.ofMillis(10)).isEmpty());
+    List<JsonNode> found = index.await(1, CASE_ID_PATH, "b", Duration.ofMillis(10));
+    assertEquals(1, found.size());
+    assertEquals("CASE_UPDATED", found.get(0).at("/event/type").asText());
+  }
+
+  @Test
+  public void testWaiterIsSignalledByLaterMessages() throws Exception {
+    MessageIndex index = new MessageIndex(100, Collections.singletonList(CASE_ID_PATH));
+    CompletableFuture<List<JsonNode>> waiting =
+        CompletableFuture.supplyAsync(
+            () ->
+                index.await(
+                    2,
+                    m -> m.at("/event/type").asText().equals("CASE_UPDATED"),
+                    Duration.ofSeconds(5)));
+
+    index.add(caseEvent("a", "CASE_CREATED"));
+    index.add(caseEvent("a", "CASE_UPDATED"));
+    index.add(caseEvent("b", "CASE_UPDATED"));
+
+    assertEquals(2, waiting.get().size());
+    assertEquals(1, index.await(1, CASE_ID_PATH, "b", Duration.ofMillis(10)).size());
+  }
+
+  @Test
+  public void testEvictedMessagesAreNoLongerFound() throws Exception {
+    MessageIndex index = new MessageIndex(2, Collections.singletonList(CASE_ID_PATH));
+    index.add(caseEvent("a", "CASE_CREATED"));
+    index.add(caseEvent("b", "CASE_CREATED"));
+    index.add(caseEvent("c", "CASE_CREATED"));
+
+    assertTrue(index.await(1, CASE_ID_PATH, "a", Duration.ofMillis(10)).isEmpty());
+    assertEquals(1, index.await(1, CASE_ID_PATH, "c", Duration.ofMillis(10)).size());
+    assertEquals(1, index.await(1, "event.type", "CASE_CREATED", Duration.ofMillis(10)).size());
+  }
+}
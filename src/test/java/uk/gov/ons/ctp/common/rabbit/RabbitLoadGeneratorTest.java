@@ -0,0 +1,101 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Test;
+
+public class RabbitLoadGeneratorTest {
+
+  /** Records messages rather than sending them, taking a fixed time over each */
+  private static class StubSender extends SimpleMessageSender {
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final long sendMillis;
+
+    StubSender(long sendMillis) {
+      this.sendMillis = sendMillis;
+    }
+
+    @Override
+    public void sendMessage(String exchange, String routingKey, String message) {
+      try {
+        Thread.sleep(sendMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (message.startsWith("reject")) {
+        throw new IllegalStateException("Rejected " + message);
+      }
+      sent.add(message);
+    }
+  }
+
+  @Test
+  public void testClosedModelSendsEveryMessage() throws Exception {
+    StubSender sender = new StubSender(0);
+    LoadReport report =
+        RabbitLoadGenerator.builder()
+            .sender(sender)
+            .exchange("events")
+            .payloads(RabbitLoadGenerator.payloadsFrom(Arrays.asList("a", "b", "c")))
+            .publishers(4)
+            .messageCount(300L)
+            .build()
+            .run();
+
+    assertEquals(300, report.getSent());
+    assertEquals(0, report.getFailed());
+    assertEquals(300, report.getLatency().getCount());
+    assertEquals(100, sender.sent.stream().filter("b"::equals).count());
+  }
+
+  @Test
+  public void testOpenModelChargesQueueingDelay() throws Exception {
+    // One publisher taking 20ms per message can't keep up with 100 messages a second, so later
+    // messages are sent ever further behind schedule and their latency must show that
+    StubSender sender = new StubSender(20);
+    LoadReport report =
+        RabbitLoadGenerator.builder()
+            .sender(sender)
+            .exchange("events")
+            .payloads(index -> "message " + index)
+            .ratePerSecond(100.0)
+            .messageCount(20L)
+            .duration(Duration.ofSeconds(10))
+            .build()
+            .run();
+
+    assertEquals(20, report.getSent());
+    assertEquals("message 19", sender.sent.get(19));
+    assertTrue(report.getLatency().getMax() >= Duration.ofMillis(190).toNanos());
+  }
+
+  @Test
+  public void testFailuresAreCountedAndTheRunCarriesOn() throws Exception {
+    StubSender sender = new StubSender(0);
+    LoadReport report =
+        RabbitLoadGenerator.builder()
+            .sender(sender)
+            .exchange("events")
+            .payloads(
+                index -> {
+                  if (index % 10 == 0) {
+                    throw new IllegalArgumentException("No payload for " + index);
+                  }
+                  return (index % 10 == 5 ? "reject " : "message ") + index;
+                })
+            .publishers(2)
+            .messageCount(100L)
+            .build()
+            .run();
+
+    assertEquals(80, report.getSent());
+    assertEquals(20, report.getFailed());
+    assertEquals(80, sender.sent.size());
+    assertTrue(sender.sent.contains("message 99"));
+  }
+}
@@ -0,0 +1,175 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+public class SimpleMessageListenerTest {
+
+  private static final SpillingBlockingQueue.Codec<String> CODEC =
+      new SpillingBlockingQueue.Codec<String>() {
+        @Override
+        public byte[] encode(String element) {
+          return element.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+          return new String(bytes, StandardCharsets.UTF_8);
+        }
+      };
+
+  private SimpleMessageListener listener;
+
+  @Before
+  public void setUp() {
+    // Nothing connects to the broker until a container is started
+    listener = new SimpleMessageListener("localhost", 5672, "guest", "guest");
+  }
+
+  @After
+  public void tearDown() {
+    listener.close();
+  }
+
+  @Test
+  public void testDispatchRoutesByConsumerQueue() {
+    BlockingQueue<String> cases =
+        listener.addRoute("cases", SimpleMessageListenerTest::text, CODEC);
+    BlockingQueue<String> uacs = listener.addRoute("uacs", SimpleMessageListenerTest::text, CODEC);
+
+    listener.dispatch(message("cases", "case-1"));
+    listener.dispatch(message("uacs", "uac-1"));
+    listener.dispatch(message("cases", "case-2"));
+    listener.dispatch(message("unknown", "lost"));
+
+    assertEquals(2, cases.size());
+    assertEquals("case-1", cases.poll());
+    assertEquals("case-2", cases.poll());
+    assertEquals(1, uacs.size());
+    assertEquals("uac-1", uacs.poll());
+    assertTrue(listener.getLatencyStats().isEmpty());
+  }
+
+  @Test
+  public void testMessagesFilteredOutByRoutingKeyAreNotMissing() {
+    listener.addRoute("cases", SimpleMessageListenerTest::text, CODEC);
+    List<Message> sent = sendStamped("event.case", "event.uac", "event.case", "event.case");
+
+    for (Message message : sent) {
+      // Only the queue bound with 'event.case' receives anything
+      if (message.getMessageProperties().getReceivedRoutingKey().equals("event.case")) {
+        listener.dispatch(receivedFrom("cases", message));
+      }
+    }
+
+    LatencyStats stats = listener.getLatencyStats().get("events");
+    assertEquals(3, stats.getLatency().getCount());
+    assertEquals(0, stats.getMissing());
+    assertEquals(0, stats.getDuplicates());
+  }
+
+  @Test
+  public void testMessagesReceivedOnTwoQueuesAreNotDuplicates() {
+    listener.addRoute("cases", SimpleMessageListenerTest::text, CODEC);
+    listener.addRoute("audit", SimpleMessageListenerTest::text, CODEC);
+    List<Message> sent = sendStamped("event.case", "event.case");
+
+    for (Message message : sent) {
+      listener.dispatch(receivedFrom("cases", message));
+      listener.dispatch(receivedFrom("audit", message));
+    }
+    listener.dispatch(receivedFrom("cases", sent.get(1)));
+
+    LatencyStats stats = listener.getLatencyStats().get("events");
+    assertEquals(5, stats.getLatency().getCount());
+    assertEquals(0, stats.getMissing());
+    assertEquals(1, stats.getDuplicates());
+  }
+
+  @Test
+  public void testMessagesBeforeResetAreNotMissing() {
+    listener.addRoute("cases", SimpleMessageListenerTest::text, CODEC);
+    List<Message> sent = sendStamped("event.case", "event.case", "event.case", "event.case");
+
+    // Warm up on the first two messages, then measure the rest
+    listener.dispatch(receivedFrom("cases", sent.get(0)));
+    listener.dispatch(receivedFrom("cases", sent.get(1)));
+    listener.resetLatencyStats();
+    listener.dispatch(receivedFrom("cases", sent.get(2)));
+    listener.dispatch(receivedFrom("cases", sent.get(3)));
+
+    LatencyStats stats = listener.getLatencyStats().get("events");
+    assertEquals(2, stats.getLatency().getCount());
+    assertEquals(0, stats.getMissing());
+  }
+
+  /**
+   * Send messages to the 'events' exchange through a SimpleMessageSender with latency stamping,
+   * capturing them rather than publishing them
+   *
+   * @param routingKeys the routing key of each message
+   * @return the stamped messages, as the broker would deliver them
+   */
+  private static List<Message> sendStamped(String... routingKeys) {
+    RabbitTemplate template = mock(RabbitTemplate.class);
+    RabbitAdmin rabbitAdmin = mock(RabbitAdmin.class);
+    when(rabbitAdmin.getRabbitTemplate()).thenReturn(template);
+    SimpleMessageSender sender = new SimpleMessageSender();
+    sender.setRabbitAdmin(rabbitAdmin);
+    sender.setLatencyStamping(true);
+
+    List<Message> sent = new ArrayList<>();
+    for (String routingKey : routingKeys) {
+      sender.sendMessage("events", routingKey, "{}");
+
+      ArgumentCaptor<MessagePostProcessor> stamper =
+          ArgumentCaptor.forClass(MessagePostProcessor.class);
+      verify(template, times(sent.size() + 1))
+          .convertAndSend(eq("events"), any(String.class), any(Object.class), stamper.capture());
+      MessageProperties properties = new MessageProperties();
+      properties.setReceivedExchange("events");
+      properties.setReceivedRoutingKey(routingKey);
+      sent.add(stamper.getValue().postProcessMessage(new Message(new byte[0], properties)));
+    }
+    return sent;
+  }
+
+  private static Message receivedFrom(String consumerQueue, Message message) {
+    MessageProperties properties = new MessageProperties();
+    properties.setReceivedExchange(message.getMessageProperties().getReceivedExchange());
+    properties.setReceivedRoutingKey(message.getMessageProperties().getReceivedRoutingKey());
+    message.getMessageProperties().getHeaders().forEach(properties::setHeader);
+    properties.setConsumerQueue(consumerQueue);
+    return new Message(message.getBody(), properties);
+  }
+
+  private static Message message(String consumerQueue, String body) {
+    MessageProperties properties = new MessageProperties();
+    properties.setConsumerQueue(consumerQueue);
+    return new Message(body.getBytes(StandardCharsets.UTF_8), properties);
+  }
+
+  private static String text(Message message) {
+    return new String(message.getBody(), StandardCharsets.UTF_8);
+  }
+}
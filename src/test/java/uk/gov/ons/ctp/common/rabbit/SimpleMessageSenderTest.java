@@ -0,0 +1,121 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+public class SimpleMessageSenderTest {
+
+  private Channel channel;
+  private SimpleMessageSender sender;
+
+  @Before
+  public void setUp() {
+    channel = mock(Channel.class);
+    when(channel.isOpen()).thenReturn(true);
+    Connection connection = mock(Connection.class);
+    when(connection.createChannel(false)).thenReturn(channel);
+    ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+    when(connectionFactory.createConnection()).thenReturn(connection);
+
+    sender = new SimpleMessageSender();
+    sender.setConnectionFactory(connectionFactory);
+  }
+
+  @Test
+  public void testBatchWithConfirmsUsesAChannelOfItsOwn() throws Exception {
+    long sent = sender.sendBatch("events", "event.case", Arrays.asList("a", "b", "c"), 2);
+
+    assertEquals(3, sent);
+    verify(channel).confirmSelect();
+    verify(channel, times(3))
+        .basicPublish(
+            eq("events"), eq("event.case"), eq(false), any(AMQP.BasicProperties.class), any());
+    verify(channel, times(2)).waitForConfirmsOrDie(anyLong());
+    verify(channel).close();
+  }
+
+  @Test
+  public void testBatchWithoutConfirmsDoesNotWait() throws Exception {
+    long sent = sender.sendBatch("events", "event.case", Arrays.asList("a", "b"));
+
+    assertEquals(2, sent);
+    verify(channel, never()).confirmSelect();
+    verify(channel, never()).waitForConfirmsOrDie(anyLong());
+    verify(channel).close();
+  }
+
+  @Test
+  public void testStampedMessagesAreNumberedPerRoutingKey() {
+    RabbitTemplate template = mock(RabbitTemplate.class);
+    RabbitAdmin rabbitAdmin = mock(RabbitAdmin.class);
+    when(rabbitAdmin.getRabbitTemplate()).thenReturn(template);
+    sender.setRabbitAdmin(rabbitAdmin);
+    sender.setLatencyStamping(true);
+
+    sender.sendMessage("events", "event.case", "a");
+    sender.sendMessage("events", "event.uac", "b");
+    sender.sendMessage("events", "event.case", "c");
+
+    ArgumentCaptor<MessagePostProcessor> stampers =
+        ArgumentCaptor.forClass(MessagePostProcessor.class);
+    verify(template, times(3))
+        .convertAndSend(eq("events"), anyString(), any(Object.class), stampers.capture());
+    List<MessagePostProcessor> sent = stampers.getAllValues();
+    Map<String, Object> first = stamp(sent.get(0));
+    Map<String, Object> second = stamp(sent.get(1));
+    Map<String, Object> third = stamp(sent.get(2));
+
+    assertEquals(1L, first.get(SimpleMessageBase.SEQUENCE_HEADER));
+    assertEquals(1L, second.get(SimpleMessageBase.SEQUENCE_HEADER));
+    assertEquals(2L, third.get(SimpleMessageBase.SEQUENCE_HEADER));
+    assertEquals(
+        first.get(SimpleMessageBase.SENDER_HEADER), third.get(SimpleMessageBase.SENDER_HEADER));
+    assertNotNull(first.get(SimpleMessageBase.SEND_TIME_HEADER));
+  }
+
+  @Test
+  public void testStampedBatchMessagesAreNumbered() throws Exception {
+    sender.setLatencyStamping(true);
+
+    sender.sendBatch("events", "event.case", Arrays.asList("a", "b"));
+
+    ArgumentCaptor<AMQP.BasicProperties> properties =
+        ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+    verify(channel, times(2))
+        .basicPublish(eq("events"), eq("event.case"), eq(false), properties.capture(), any());
+    assertEquals(
+        1L, properties.getAllValues().get(0).getHeaders().get(SimpleMessageBase.SEQUENCE_HEADER));
+    assertEquals(
+        2L, properties.getAllValues().get(1).getHeaders().get(SimpleMessageBase.SEQUENCE_HEADER));
+  }
+
+  private static Map<String, Object> stamp(MessagePostProcessor stamper) {
+    Message message = new Message(new byte[0], new MessageProperties());
+    return stamper.postProcessMessage(message).getMessageProperties().getHeaders();
+  }
+}
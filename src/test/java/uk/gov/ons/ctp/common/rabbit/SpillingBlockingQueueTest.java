@@ -0,0 +1,118 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillingBlockingQueueTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private SpillingBlockingQueue<String> newQueue(int memoryCapacity) {
+    return new SpillingBlockingQueue<>(
+        memoryCapacity,
+        folder.getRoot().toPath(),
+        new SpillingBlockingQueue.Codec<String>() {
+          @Override
+          public byte[] encode(String element) {
+            return element.getBytes(StandardCharsets.UTF_8);
+          }
+
+          @Override
+          public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+          }
+        });
+  }
+
+  @Test
+  public void testSpilledElementsKeepTheirOrder() throws Exception {
+    try (SpillingBlockingQueue<String> queue = newQueue(2)) {
+      for (int i = 0; i < 10; i++) {
+        queue.put("message-" + i);
+      }
+      assertEquals(10, queue.size());
+
+      assertEquals("message-0", queue.take());
+      assertEquals("message-1", queue.poll(1, TimeUnit.SECONDS));
+      queue.put("message-10");
+      List<String> rest = new ArrayList<>();
+      queue.drainTo(rest);
+
+      assertEquals(9, rest.size());
+      assertEquals("message-2", rest.get(0));
+      assertEquals("message-10", rest.get(8));
+      assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testIteratorIncludesSpilledElements() {
+    try (SpillingBlockingQueue<String> queue = newQueue(1)) {
+      queue.addAll(Arrays.asList("a", "b", "c"));
+      List<String> seen = new ArrayList<>();
+      queue.iterator().forEachRemaining(seen::add);
+      assertEquals(Arrays.asList("a", "b", "c"), seen);
+      assertEquals("a", queue.peek());
+    }
+  }
+
+  @Test
+  public void testRemoveTakesElementsOutOfMemoryAndTheSpillFile() {
+    try (SpillingBlockingQueue<String> queue = newQueue(2)) {
+      queue.addAll(Arrays.asList("a", "b", "c", "d", "e", "f"));
+
+      assertTrue(queue.remove("b"));
+      assertTrue(queue.remove("e"));
+      assertFalse(queue.remove("z"));
+      assertEquals(4, queue.size());
+      assertEquals(Arrays.asList("a", "c", "d", "f"), new ArrayList<>(queue));
+
+      assertTrue(queue.removeIf(s -> s.equals("a") || s.equals("f")));
+      assertTrue(queue.retainAll(Collections.singleton("d")));
+      queue.add("g");
+      List<String> rest = new ArrayList<>();
+      queue.drainTo(rest);
+      assertEquals(Arrays.asList("d", "g"), rest);
+    }
+  }
+
+  @Test
+  public void testQueueStartsAfreshAfterClose() throws Exception {
+    try (SpillingBlockingQueue<String> queue = newQueue(1)) {
+      queue.addAll(Arrays.asList("a", "b", "c"));
+      queue.take();
+      queue.close();
+      assertEquals(0, queue.size());
+      assertEquals(0, folder.getRoot().list().length);
+
+      queue.addAll(Arrays.asList("x", "y", "z"));
+      List<String> rest = new ArrayList<>();
+      queue.drainTo(rest);
+      assertEquals(Arrays.asList("x", "y", "z"), rest);
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testIteratorDoesNotSupportRemove() {
+    try (SpillingBlockingQueue<String> queue = newQueue(1)) {
+      queue.addAll(Arrays.asList("a", "b"));
+      Iterator<String> elements = queue.iterator();
+      elements.next();
+      elements.remove();
+    }
+  }
+}